@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+/**
+ * The arithmetic of the DCPU-16 on primitive ints. All operands are 
+ * unsigned 16 bit values (0 - 0xFFFF). Operations that set EX return 
+ * the result in the lower and EX in the upper 16 bits of the returned
+ * int - use {@link #result(int)} and {@link #ex(int)} to unpack them.
+ * Nothing is allocated, so the JIT can inline these methods.
+ * 
+ * @author Florian Frankenberger
+ */
+public final class Alu {
+
+    private Alu() {
+    }
+    
+    public static int result(int packed) {
+        return packed & 0xFFFF;
+    }
+    
+    public static int ex(int packed) {
+        return packed >>> 16;
+    }
+    
+    /**
+     * b + a, EX is 1 on overflow
+     */
+    public static int add(int b, int a) {
+        return b + a;
+    }
+    
+    /**
+     * b - a, EX is 0xFFFF on underflow
+     */
+    public static int sub(int b, int a) {
+        return b - a;
+    }
+    
+    /**
+     * b * a (unsigned), EX is the upper 16 bits of the product
+     */
+    public static int mul(int b, int a) {
+        return b * a;
+    }
+    
+    /**
+     * b * a (signed), EX is the upper 16 bits of the product
+     */
+    public static int mli(int b, int a) {
+        return (short) b * (short) a;
+    }
+    
+    /**
+     * b / a (unsigned), EX is the fractional part ((b << 16) / a). If a
+     * is 0 both are 0.
+     */
+    public static int div(int b, int a) {
+        final int nonZero = -a >> 31; //all bits set if a != 0
+        final int divisor = a + nonZero + 1;
+        final int quotient = b / divisor;
+        final int fraction = (int) (((long) b << 16) / divisor);
+        return (quotient | (fraction << 16)) & nonZero;
+    }
+    
+    /**
+     * b / a (signed, rounded towards 0), EX is the fractional part. If a
+     * is 0 both are 0.
+     */
+    public static int dvi(int b, int a) {
+        final int nonZero = -a >> 31;
+        final int divisor = (short) (a + nonZero + 1);
+        final int quotient = (short) b / divisor;
+        final int fraction = ((short) b << 16) / divisor;
+        return ((quotient & 0xFFFF) | (fraction << 16)) & nonZero;
+    }
+    
+    /**
+     * b % a (unsigned), 0 if a is 0. Does not change EX.
+     */
+    public static int mod(int b, int a) {
+        final int nonZero = -a >> 31;
+        return (b % (a + nonZero + 1)) & nonZero;
+    }
+    
+    /**
+     * b % a (signed, sign of b), 0 if a is 0. Does not change EX.
+     */
+    public static int mdi(int b, int a) {
+        final int nonZero = -a >> 31;
+        return ((short) b % (short) (a + nonZero + 1)) & nonZero & 0xFFFF;
+    }
+    
+    /**
+     * b >>> a, EX is the bits shifted out ((b << 16) >> a)
+     */
+    public static int shr(int b, int a) {
+        final long shifted = ((long) b << 16) >>> Math.min(a, 63);
+        return (int) (shifted >>> 16) | ((int) shifted << 16);
+    }
+    
+    /**
+     * b >> a (signed), EX is the bits shifted out ((b << 16) >>> a)
+     */
+    public static int asr(int b, int a) {
+        final int result = (short) b >> Math.min(a, 31);
+        final int fraction = (int) ((((long) b << 16) & 0xFFFFFFFFL) >>> Math.min(a, 63));
+        return (result & 0xFFFF) | (fraction << 16);
+    }
+    
+    /**
+     * b << a, EX is the bits shifted out ((b << a) >> 16)
+     */
+    public static int shl(int b, int a) {
+        return (int) ((long) b << Math.min(a, 32));
+    }
+    
+    /**
+     * b + a + EX, EX is 1 on overflow
+     */
+    public static int adx(int b, int a, int ex) {
+        final int sum = b + a + ex;
+        final int carry = ((sum >>> 16) + 1) >>> 1; //sum >>> 16 is 0, 1 or 2
+        return (sum & 0xFFFF) | (carry << 16);
+    }
+    
+    /**
+     * b - a + EX, EX is 0xFFFF on underflow and 1 on overflow
+     */
+    public static int sbx(int b, int a, int ex) {
+        return b - a + ex;
+    }
+    
+}
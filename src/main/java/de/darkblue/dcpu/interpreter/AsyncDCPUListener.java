@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples a listener from the emulation thread. The events are stored
+ * in a preallocated ring buffer and delivered to the wrapped listener by
+ * a separate dispatch thread, so a slow listener does not slow down the
+ * emulation. What happens if the buffer is full is determined by the
+ * {@link OverflowPolicy}. Start, stop and reset events are never dropped
+ * or coalesced - they wait for free space in any case.
+ * <p/>
+ * The ring is lock-free: producers claim a slot with a compare and set
+ * and publish it with the slot's sequence number. The dispatch thread is
+ * only unparked if it is waiting for events. The monitor of this listener
+ * is only used if the buffer is full.
+ * 
+ * @author Florian Frankenberger
+ */
+public class AsyncDCPUListener implements DCPUListener {
+    
+    public static final int DEFAULT_CAPACITY = 1024;
+    
+    public static enum OverflowPolicy {
+        /**
+         * merges the events that do not fit into the buffer: ram ranges
+         * are joined, registers are collected and only the latest cycles 
+         * and line are kept
+         */
+        COALESCE,
+        
+        /**
+         * drops the events that do not fit into the buffer
+         */
+        DROP,
+        
+        /**
+         * blocks the emulation until there is space in the buffer
+         */
+        BLOCK
+    }
+    
+    private static final int EVENT_START = 0;
+    private static final int EVENT_STOP = 1;
+    private static final int EVENT_RESET = 2;
+    private static final int EVENT_RAM = 3;
+    private static final int EVENT_REGISTER = 4;
+    private static final int EVENT_CYCLES = 5;
+    private static final int EVENT_LINE = 6;
+    
+    private static final Register[] REGISTERS = Register.values();
+    
+    private final DCPUListener listener;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread dispatchThread;
+    private volatile boolean closed = false;
+    
+    //the ring buffer - a slot is free for the producer claiming position p
+    //if its sequence is p and readable by the dispatcher if it is p + 1
+    private final DCPU[] eventDcpus;
+    private final int[] eventTypes;
+    private final long[] eventValues;
+    private final int[] eventSecondValues;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0L; //only accessed by the dispatch thread
+    
+    private volatile boolean dispatcherWaiting = false;
+    private volatile int waitingProducers = 0;
+    
+    //events merged because the buffer was full
+    private volatile boolean coalescedPending = false;
+    private DCPU coalescedDcpu = null;
+    private int coalescedRamFrom;
+    private int coalescedRamTo;
+    private int coalescedRegisters;
+    private long coalescedCycles;
+    private int coalescedLine;
+    
+    private long droppedEvents = 0L;
+
+    public AsyncDCPUListener(DCPUListener listener) {
+        this(listener, DEFAULT_CAPACITY, OverflowPolicy.COALESCE);
+    }
+    
+    /**
+     * creates a new asynchronous listener and starts its dispatch thread
+     * 
+     * @param listener the listener to deliver the events to
+     * @param capacity the number of events the buffer can hold (rounded 
+     *        up to a power of 2)
+     * @param overflowPolicy what to do with events if the buffer is full
+     */
+    public AsyncDCPUListener(DCPUListener listener, int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        final int slots = Integer.bitCount(capacity) == 1 ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.listener = listener;
+        this.overflowPolicy = overflowPolicy;
+        this.eventDcpus = new DCPU[slots];
+        this.eventTypes = new int[slots];
+        this.eventValues = new long[slots];
+        this.eventSecondValues = new int[slots];
+        this.sequences = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; ++i) {
+            sequences.set(i, i);
+        }
+        this.mask = slots - 1;
+        clearCoalesced();
+        
+        this.dispatchThread = new Thread("DCPU event dispatcher") {
+
+            @Override
+            public void run() {
+                dispatch();
+            }
+            
+        };
+        this.dispatchThread.setDaemon(true);
+        this.dispatchThread.start();
+    }
+    
+    /**
+     * returns the number of events dropped so far
+     * 
+     * @return 
+     */
+    public synchronized long getDroppedEvents() {
+        return droppedEvents;
+    }
+    
+    /**
+     * stops the dispatch thread. Events not delivered yet are discarded.
+     */
+    public synchronized void close() {
+        this.closed = true;
+        notifyAll();
+        LockSupport.unpark(dispatchThread);
+    }
+    
+    @Override
+    public void onStartEmulation(DCPU dcpu) {
+        publish(dcpu, EVENT_START, 0L, 0);
+    }
+
+    @Override
+    public void onStopEmulation(DCPU dcpu) {
+        publish(dcpu, EVENT_STOP, 0L, 0);
+    }
+
+    @Override
+    public void onResetEmulation(DCPU dcpu) {
+        publish(dcpu, EVENT_RESET, 0L, 0);
+    }
+
+    @Override
+    public void onRamValuesChanged(DCPU dcpu, int fromAddress, int toAddress) {
+        publish(dcpu, EVENT_RAM, fromAddress, toAddress);
+    }
+
+    @Override
+    public void onRegisterValueChanged(DCPU dcpu, Register register) {
+        publish(dcpu, EVENT_REGISTER, register.ordinal(), 0);
+    }
+
+    @Override
+    public void onCyclesUpdate(DCPU dcpu, long totalCycles) {
+        publish(dcpu, EVENT_CYCLES, totalCycles, 0);
+    }
+
+    @Override
+    public void onNewLine(DCPU dcpu, int line) {
+        publish(dcpu, EVENT_LINE, line, 0);
+    }
+    
+    private void publish(DCPU dcpu, int type, long value, int secondValue) {
+        if (closed || (!coalescedPending && offer(dcpu, type, value, secondValue))) {
+            return;
+        }
+        publishOverflow(dcpu, type, value, secondValue);
+    }
+    
+    /**
+     * appends the event to the ring without waiting
+     * 
+     * @return false if the ring is full
+     */
+    private boolean offer(DCPU dcpu, int type, long value, int secondValue) {
+        while (true) {
+            final long position = tail.get();
+            final int index = (int) position & mask;
+            final long sequence = sequences.get(index);
+            if (sequence < position) {
+                return false;
+            }
+            if (sequence == position && tail.compareAndSet(position, position + 1)) {
+                eventDcpus[index] = dcpu;
+                eventTypes[index] = type;
+                eventValues[index] = value;
+                eventSecondValues[index] = secondValue;
+                sequences.set(index, position + 1);
+                if (dispatcherWaiting) {
+                    LockSupport.unpark(dispatchThread);
+                }
+                return true;
+            }
+            //another producer claimed the slot
+        }
+    }
+    
+    private boolean isFull() {
+        final long position = tail.get();
+        return sequences.get((int) position & mask) < position;
+    }
+    
+    /**
+     * handles an event that did not fit into the ring
+     */
+    private synchronized void publishOverflow(DCPU dcpu, int type, long value, int secondValue) {
+        final boolean lifecycleEvent = type <= EVENT_RESET;
+        while (!closed) {
+            //as long as there are coalesced events newer events must
+            //be coalesced as well to keep them in order
+            if (!coalescedPending && offer(dcpu, type, value, secondValue)) {
+                return;
+            }
+            if (!lifecycleEvent) {
+                if (coalescedDcpu == dcpu 
+                        || (coalescedDcpu == null && overflowPolicy == OverflowPolicy.COALESCE)) {
+                    coalesce(dcpu, type, value, secondValue);
+                    return;
+                }
+                if (coalescedDcpu == null && overflowPolicy == OverflowPolicy.DROP) {
+                    droppedEvents++;
+                    return;
+                }
+            }
+            
+            waitingProducers++;
+            try {
+                //checked again after announcing the wait, so the
+                //dispatcher can't miss it
+                if (coalescedPending || isFull()) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                droppedEvents++;
+                return;
+            } finally {
+                waitingProducers--;
+            }
+        }
+    }
+    
+    private void coalesce(DCPU dcpu, int type, long value, int secondValue) {
+        coalescedDcpu = dcpu;
+        coalescedPending = true;
+        switch (type) {
+            case EVENT_RAM:
+                coalescedRamFrom = Math.min(coalescedRamFrom, (int) value);
+                coalescedRamTo = Math.max(coalescedRamTo, secondValue);
+                break;
+            case EVENT_REGISTER:
+                coalescedRegisters |= 1 << value;
+                break;
+            case EVENT_CYCLES:
+                coalescedCycles = value;
+                break;
+            case EVENT_LINE:
+                coalescedLine = (int) value;
+                break;
+        }
+        if (dispatcherWaiting) {
+            LockSupport.unpark(dispatchThread);
+        }
+    }
+    
+    private void clearCoalesced() {
+        coalescedDcpu = null;
+        coalescedPending = false;
+        coalescedRamFrom = Integer.MAX_VALUE;
+        coalescedRamTo = Integer.MIN_VALUE;
+        coalescedRegisters = 0;
+        coalescedCycles = -1L;
+        coalescedLine = -1;
+    }
+    
+    private void dispatch() {
+        final int capacity = mask + 1;
+        while (!closed) {
+            final int index = (int) head & mask;
+            if (sequences.get(index) == head + 1) {
+                final DCPU dcpu = eventDcpus[index];
+                final int type = eventTypes[index];
+                final long value = eventValues[index];
+                final int secondValue = eventSecondValues[index];
+                eventDcpus[index] = null;
+                sequences.set(index, head + capacity);
+                head++;
+                if (waitingProducers > 0) {
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+                deliver(dcpu, type, value, secondValue);
+            } else if (coalescedPending) {
+                //the coalesced events are newer than all buffered 
+                //events, so they are delivered once the buffer is empty
+                deliverCoalesced();
+            } else {
+                dispatcherWaiting = true;
+                if (sequences.get(index) != head + 1 && !coalescedPending && !closed) {
+                    LockSupport.park(this);
+                }
+                dispatcherWaiting = false;
+                if (Thread.interrupted()) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    private void deliverCoalesced() {
+        final DCPU dcpu;
+        final int ramFrom;
+        final int ramTo;
+        final int registers;
+        final long cycles;
+        final int line;
+        synchronized (this) {
+            dcpu = coalescedDcpu;
+            ramFrom = coalescedRamFrom;
+            ramTo = coalescedRamTo;
+            registers = coalescedRegisters;
+            cycles = coalescedCycles;
+            line = coalescedLine;
+            clearCoalesced();
+            notifyAll();
+        }
+        
+        if (ramFrom < ramTo) {
+            listener.onRamValuesChanged(dcpu, ramFrom, ramTo);
+        }
+        for (Register register : REGISTERS) {
+            if ((registers & (1 << register.ordinal())) != 0) {
+                listener.onRegisterValueChanged(dcpu, register);
+            }
+        }
+        if (cycles >= 0) {
+            listener.onCyclesUpdate(dcpu, cycles);
+        }
+        if (line >= 0) {
+            listener.onNewLine(dcpu, line);
+        }
+    }
+    
+    private void deliver(DCPU dcpu, int type, long value, int secondValue) {
+        switch (type) {
+            case EVENT_START:
+                listener.onStartEmulation(dcpu);
+                break;
+            case EVENT_STOP:
+                listener.onStopEmulation(dcpu);
+                break;
+            case EVENT_RESET:
+                listener.onResetEmulation(dcpu);
+                break;
+            case EVENT_RAM:
+                listener.onRamValuesChanged(dcpu, (int) value, secondValue);
+                break;
+            case EVENT_REGISTER:
+                listener.onRegisterValueChanged(dcpu, REGISTERS[(int) value]);
+                break;
+            case EVENT_CYCLES:
+                listener.onCyclesUpdate(dcpu, value);
+                break;
+            case EVENT_LINE:
+                listener.onNewLine(dcpu, (int) value);
+                break;
+        }
+    }
+    
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import de.darkblue.dcpu.interpreter.jit.BlockCompiler;
+import de.darkblue.dcpu.interpreter.jit.CompiledBlock;
+
+/**
+ * A straight run of decoded instructions that ends with a conditional
+ * or an instruction that changes the pc. A block remembers the write
+ * generations of the ram pages it was decoded from, so it can tell when
+ * the code beneath it was changed.
+ * 
+ * @author Florian Frankenberger
+ */
+public final class BasicBlock {
+
+    /**
+     * number of entries after which a block is compiled
+     */
+    static final int COMPILE_THRESHOLD = 1000;
+
+    private final int startAddress;
+    private final DecodedInstruction[] instructions;
+    private final int firstPage;
+    private final int[] pageGenerations;
+    private final char[] code;
+    private final int endAddress;
+    private final int cycles;
+    
+    private int entries = 0;
+    private CompiledBlock compiledBlock = null;
+
+    BasicBlock(int startAddress, DecodedInstruction[] instructions, int firstPage, int[] pageGenerations, 
+            char[] code) {
+        this.startAddress = startAddress;
+        this.instructions = instructions;
+        this.firstPage = firstPage;
+        this.pageGenerations = pageGenerations;
+        this.code = code;
+        
+        int address = startAddress;
+        int blockCycles = 0;
+        for (DecodedInstruction instruction : instructions) {
+            address += instruction.getLength();
+            blockCycles += instruction.getCycles();
+        }
+        this.endAddress = address;
+        this.cycles = blockCycles;
+    }
+
+    public int getStartAddress() {
+        return startAddress;
+    }
+
+    /**
+     * the address following the last instruction of this block
+     * 
+     * @return 
+     */
+    public int getEndAddress() {
+        return endAddress;
+    }
+
+    /**
+     * the cycles needed to execute all instructions of
+     * this block (without additional cycles)
+     * 
+     * @return 
+     */
+    public int getCycles() {
+        return cycles;
+    }
+    
+    /**
+     * the decoded instructions of this block. The returned array
+     * must not be changed.
+     * 
+     * @return 
+     */
+    public DecodedInstruction[] getInstructions() {
+        return instructions;
+    }
+    
+    /**
+     * counts an entry into this block and compiles it as soon as
+     * it got hot. Returns null as long as there is no compiled
+     * version of this block.
+     * 
+     * @param ram the ram the block was decoded from
+     * @return 
+     */
+    CompiledBlock enter(PagedRam ram) {
+        if (compiledBlock == null && ++entries == COMPILE_THRESHOLD) {
+            compiledBlock = BlockCompiler.compile(this, ram);
+        }
+        return compiledBlock;
+    }
+    
+    /**
+     * returns true if none of the pages this block was
+     * decoded from has been written to since
+     * 
+     * @param currentPageGenerations
+     * @return 
+     */
+    boolean isValid(int[] currentPageGenerations) {
+        for (int i = 0; i < pageGenerations.length; ++i) {
+            if (currentPageGenerations[firstPage + i] != pageGenerations[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * returns true if the words this block was decoded from still have
+     * their values. A write to the pages of the block does not necessarily
+     * change the block itself (e.g. data next to the code).
+     * 
+     * @param ram
+     * @return 
+     */
+    boolean isUnchanged(PagedRam ram) {
+        for (int i = 0; i < code.length; ++i) {
+            if (ram.get(startAddress + i) != code[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * marks this block as valid for the current write generations
+     * of its pages - the entries and the compiled code are kept
+     * 
+     * @param currentPageGenerations 
+     */
+    void revalidate(int[] currentPageGenerations) {
+        System.arraycopy(currentPageGenerations, firstPage, pageGenerations, 0, pageGenerations.length);
+    }
+    
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * A direct mapped cache of basic blocks keyed by their start address. Every
+ * write to the ram increases the write generation of the affected page, 
+ * which invalidates all blocks decoded from that page (self modifying code).
+ * An invalidated block whose own words did not change is kept, so a program
+ * writing data next to its code does not lose the entry count and the 
+ * compiled code of its blocks.
+ * 
+ * @author Florian Frankenberger
+ */
+public class BlockCache {
+    
+    private static final int PAGE_SHIFT = 8;
+    
+    private static final int CACHE_SIZE = 0x1000;
+    private static final int MAX_BLOCK_INSTRUCTIONS = 32;
+    
+    private final BasicBlock[] blocks = new BasicBlock[CACHE_SIZE];
+    private final int[] pageGenerations = new int[0x10000 >> PAGE_SHIFT];
+    private final DecodedInstruction[] decodeBuffer = new DecodedInstruction[MAX_BLOCK_INSTRUCTIONS];
+
+    /**
+     * must be called whenever a ram cell was changed
+     * 
+     * @param address 
+     */
+    public void onRamWritten(int address) {
+        this.pageGenerations[address >> PAGE_SHIFT]++;
+    }
+    
+    /**
+     * must be called whenever a range of ram cells was changed
+     * 
+     * @param fromAddress the first changed address
+     * @param toAddress the address following the last changed address
+     */
+    public void onRamWritten(int fromAddress, int toAddress) {
+        for (int page = fromAddress >> PAGE_SHIFT; page <= (toAddress - 1) >> PAGE_SHIFT; ++page) {
+            this.pageGenerations[page]++;
+        }
+    }
+    
+    /**
+     * returns true if the block is still backed by
+     * unchanged ram
+     * 
+     * @param block
+     * @return 
+     */
+    public boolean isValid(BasicBlock block) {
+        return block.isValid(pageGenerations);
+    }
+    
+    /**
+     * returns the basic block starting at the given address. The block
+     * is decoded if it is not cached or the code beneath it changed. If 
+     * the instruction at the address can not be decoded null is returned.
+     * 
+     * @param ram
+     * @param address
+     * @return 
+     */
+    public BasicBlock getBlock(PagedRam ram, int address) {
+        final int index = address & (CACHE_SIZE - 1);
+        BasicBlock block = this.blocks[index];
+        if (block != null && block.getStartAddress() == address && !block.isValid(pageGenerations)) {
+            //only a write to the block itself makes it stale
+            if (block.isUnchanged(ram)) {
+                block.revalidate(pageGenerations);
+            } else {
+                block = null;
+            }
+        }
+        if (block == null || block.getStartAddress() != address) {
+            block = decodeBlock(ram, address);
+            this.blocks[index] = block;
+        }
+        return block;
+    }
+    
+    /**
+     * drops all cached blocks
+     */
+    public void clear() {
+        Arrays.fill(this.blocks, null);
+    }
+    
+    private BasicBlock decodeBlock(PagedRam ram, int startAddress) {
+        int count = 0;
+        int address = startAddress;
+        while (count < MAX_BLOCK_INSTRUCTIONS) {
+            final DecodedInstruction instruction = InstructionDecoder.decode(ram.get(address));
+            if (instruction == null || address + instruction.getLength() > PagedRam.SIZE) {
+                break;
+            }
+            
+            decodeBuffer[count++] = instruction;
+            address += instruction.getLength();
+            if (instruction.isEndOfBasicBlock() || address >= PagedRam.SIZE) {
+                break;
+            }
+        }
+        
+        if (count == 0) {
+            return null;
+        }
+        
+        final int firstPage = startAddress >> PAGE_SHIFT;
+        final int lastPage = (address - 1) >> PAGE_SHIFT;
+        final int[] generations = Arrays.copyOfRange(pageGenerations, firstPage, lastPage + 1);
+        final char[] code = new char[address - startAddress];
+        ram.get(startAddress, CharBuffer.wrap(code), code.length);
+        
+        return new BasicBlock(startAddress, Arrays.copyOf(decodeBuffer, count), firstPage, generations, code);
+    }
+    
+}
@@ -17,28 +17,19 @@
 
 package de.darkblue.dcpu.interpreter;
 
-import de.darkblue.dcpu.interpreter.instructions.Instruction;
-import de.darkblue.dcpu.interpreter.instructions.InstructionDefinition;
-import de.darkblue.dcpu.interpreter.operands.Operand;
+import de.darkblue.dcpu.interpreter.jit.CompiledBlock;
 import de.darkblue.dcpu.interpreter.operands.Operand.OperandMode;
-import de.darkblue.dcpu.interpreter.operands.OperandDefinition;
-import de.darkblue.dcpu.parser.instructions.Operation;
 import de.darkblue.dcpu.parser.instructions.Word;
-import de.darkblue.dcpu.parser.instructions.WordChangeListener;
-import java.io.DataInputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.nio.CharBuffer;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.EnumMap;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import org.reflections.Reflections;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * A simple DCPU-16 implementation based on notch's specification
@@ -48,114 +39,149 @@ import org.reflections.Reflections;
  */
 public class DCPU {
  
-    private static final String PACKAGE_INSTRUCTIONS = "de.darkblue.dcpu.interpreter.instructions";
-    private static final String PACKAGE_OPERANDS = "de.darkblue.dcpu.interpreter.operands";
+    private static final long DEFAULT_HZ = 100_000; //100 kHz
+    private static final long PACING_QUANTUM = 1_000_000L; //1 ms
+    private static final long MAX_PACING_LAG = 100_000_000L; //100 ms
+    private static final int DEFAULT_EVENT_FLUSH_RATE = 30; //30 Hz
+    private static final long EVENT_FLUSH_CHECK_CYCLES = 1_000;
     
-    private static final Map<Operation, Class<? extends Instruction>> REGISTERED_INSTRUCTIONS = new HashMap<>();
-    private static final Map<Integer, Class<? extends Operand>> REGISTERED_OPERANDS = new HashMap<>();
+    private static final int LOCATION_REGISTER = 0x10000;
+    private static final int LOCATION_LITERAL = 0x20000;
+    private static final Register[] REGISTERS = Register.values();
     
-    private static final long DEFAULT_HZ = 100_000; //100 kHz
+    private final PagedRam ram = new PagedRam();
+    private final int[] registers = new int[REGISTERS.length];
+    private ProgramImage program = ProgramImage.EMPTY;
     
-    static {
-        final Reflections reflectionsInstructions = new Reflections(PACKAGE_INSTRUCTIONS);
-        Set<Class<? extends Instruction>> instructions = reflectionsInstructions.getSubTypesOf(Instruction.class);
-        for (Class<? extends Instruction> instruction : instructions) {
-            final InstructionDefinition defition = instruction.getAnnotation(InstructionDefinition.class);
-            if (defition != null) {
-                REGISTERED_INSTRUCTIONS.put(defition.operation(), instruction);
-            }
-        }
-        
-        final Reflections reflectionsOperands = new Reflections(PACKAGE_OPERANDS);
-        Set<Class<? extends Operand>> operands = reflectionsOperands.getSubTypesOf(Operand.class);
-        for (Class<? extends Operand> operand : operands) {
-            final OperandDefinition defition = operand.getAnnotation(OperandDefinition.class);
-            if (defition != null) {
-                for (int operandCode : defition.operandCodes()) {
-                    REGISTERED_OPERANDS.put(operandCode, operand);
-                }
-            }
-        }
-    }
+    private final BlockCache blockCache = new BlockCache();
+    private final int[] registerSnapshot = new int[REGISTERS.length];
+    private boolean jitEnabled = false;
     
-    private Word[] ram = new Word[0x10000];
-    private Word[] lastReadProgram = new Word[0x10000];
-    private Map<Register, Word> registers = new EnumMap<>(Register.class);
+    private final BitSet breakpoints = new BitSet();
+    private int runUntilAddress = -1;
+    private boolean eventsEnabled = true;
+    
+    private final DirtyBitmap dirtyRam = new DirtyBitmap(0x10000);
+    private int dirtyRegisters = 0;
+    private boolean cyclesChanged = false;
+    private int pendingLine = -1;
+    private boolean batchingEvents = false;
+    private long eventFlushInterval;
+    private long nextEventFlushTime;
+    private long nextEventFlushCheckCycles;
+    private boolean halted = false;
+    private volatile RuntimeException lastError = null;
     
     private long cpuCycles = 0L;
-    private long lastCommandExecution = 0L;
     
-    private long timePerCycle;
+    private final InterruptQueue interruptQueue = new InterruptQueue();
+    private volatile boolean interruptPending = false;
+    private volatile boolean interruptQueueOverflow = false;
+    private boolean interruptQueueing = false;
+    
+    private final List<Device> devices = new ArrayList<>();
+    private final DeviceScheduler deviceScheduler = new DeviceScheduler();
+    private long nextDeviceDeadline = Long.MAX_VALUE;
+    private RamWatch[] ramWatches = new RamWatch[0];
+    
+    //can be changed by other threads while the emulation is running
+    private volatile long speedInHz;
+    private volatile long cyclesPerQuantum;
+    private volatile boolean throttled = true;
+    private volatile boolean pacingChanged = false;
+    private long pacingAnchorTime;
+    private long pacingAnchorCycles;
+    private long nextPacingCycles;
     
-    private final Set<DCPUListener> listeners = new HashSet<>();
-    private Thread runThread = null;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private volatile int subscribedRamFrom = 0;
+    private volatile int subscribedRamTo = 0;
+    private volatile int subscribedRegisters = 0;
+    private volatile boolean cyclesSubscribed = false;
+    private volatile boolean linesSubscribed = false;
+    private volatile Thread runThread = null;
     private volatile boolean stop = false;
     
-    private boolean skipNextInstructionIfConditional = false;
+    private LineTable lineTable;
+    
+    /**
+     * a registered listener together with the events it subscribed to
+     */
+    private static final class Subscriber {
+        
+        private final DCPUListener listener;
+        private final int ramFrom;
+        private final int ramTo;
+        private final int registerMask;
+        private final long cycleInterval;
+        private final boolean lines;
+        private long lastReportedCycles = -1L;
 
-    private Map<Word, Integer> memoryToLineNoMapping;
+        public Subscriber(DCPUListener listener, DCPUSubscription subscription) {
+            this.listener = listener;
+            this.ramFrom = subscription.getRamFrom();
+            this.ramTo = subscription.getRamTo();
+            this.registerMask = subscription.getRegisterMask();
+            this.cycleInterval = subscription.getCycleInterval();
+            this.lines = subscription.isLinesSubscribed();
+        }
+        
+        private boolean isCycleUpdateDue(long cycles) {
+            return cycleInterval > 0 && (lastReportedCycles < 0 || cycles < lastReportedCycles 
+                    || cycles - lastReportedCycles >= cycleInterval);
+        }
+        
+    }
     
     public DCPU() {
-        initRam();
-        initRegisters();
         setSimulationSpeed(DEFAULT_HZ);
-        
-        for (int i = 0; i < lastReadProgram.length; ++i) {
-            lastReadProgram[i] = Word.ZERO.clone();
-        }
+        setEventFlushRate(DEFAULT_EVENT_FLUSH_RATE);
     }
 
     /**
-     * sets a memory address to line number mapping used to fire the onNewLine() event
-     * on the listeners. If no mapping is set no such events will be fired.
+     * sets the line table used to fire the onNewLine() event on the 
+     * listeners. If no line table is set no such events will be fired.
      * 
-     * @param memoryToLineNoMapping 
+     * @param lineTable 
      */
-    public void setMemoryToLineNoMapping(Map<Word, Integer> memoryToLineNoMapping) {
-        this.memoryToLineNoMapping = memoryToLineNoMapping;
+    public void setLineTable(LineTable lineTable) {
+        this.lineTable = lineTable;
     }
     
-    public final void initRam() {
-        for (int i = 0; i < ram.length; ++i) {
-            final Word position = new Word();
-            position.setUnsignedInt(i);
-            
-            ram[i] = Word.ZERO.clone();
-            
-            ram[i].registerListener(new WordChangeListener() {
-
-                @Override
-                public void onValueChanged(Word word) {
-                    notifyOnRamUpdated(position);
-                }
-                
-            });
-        }
-    }
-    
-    private void initRegisters() {
-        for (final Register register : Register.values()) {
-            final Word registerWord = Word.ZERO.clone();
-            
-            registers.put(register, registerWord);
-            
-            registerWord.registerListener(new WordChangeListener() {
-
-                @Override
-                public void onValueChanged(Word word) {
-                    notifyOnRegisterUpdated(register);
-                }
-                
-            });
+    /**
+     * skips the instruction at the pc without decoding its operands. If it
+     * is a conditional, the instruction following it is skipped as well
+     * (and so on). Called by conditional instructions whose test failed.
+     * The chain ends after the whole ram was walked, so a ram full of
+     * conditionals can't make it loop forever.
+     * 
+     * @return the additional cycles needed: one for the failed test 
+     *          and one per skipped conditional
+     */
+    public int skipNextInstruction() {
+        int pc = this.registers[Register.PC.ordinal()];
+        int cycles = 1;
+        int word = this.ram.get(pc);
+        int walked = 0;
+        while (InstructionDecoder.isConditional(word) && walked < PagedRam.SIZE) {
+            final int length = InstructionDecoder.getLength(word);
+            pc = (pc + length) & 0xFFFF;
+            walked += length;
+            word = this.ram.get(pc);
+            cycles++;
         }
+        setRegisterValue(Register.PC, pc + InstructionDecoder.getLength(word));
+        return cycles;
     }
     
     /**
-     * tells the emulator to skip the next instruction
-     * if it is a conditional one
+     * enables the compilation of frequently executed blocks
+     * to JVM bytecode. Disabled by default.
+     * 
+     * @param jitEnabled 
      */
-    public void setSkipNextInstructionIfConditional() {
-        this.skipNextInstructionIfConditional = true;
+    public void setJitEnabled(boolean jitEnabled) {
+        this.jitEnabled = jitEnabled;
     }
     
     /**
@@ -167,27 +193,58 @@ public class DCPU {
         if (speedInHz <= 0) {
             throw new IllegalArgumentException("Hz must be > 0");
         }
-        this.timePerCycle = 1_000_000_000L / speedInHz;
+        this.speedInHz = speedInHz;
+        this.cyclesPerQuantum = Math.max(1L, speedInHz * PACING_QUANTUM / 1_000_000_000L);
+        this.pacingChanged = true;
     }
     
-    public void clearRam() {
-        for (int i = 0; i < ram.length; ++i) {
-            ram[i].setSignedInt(0);
-        }
+    public long getSimulationSpeed() {
+        return speedInHz;
     }
     
-    public void clearRegisters() {
-        for (final Register register : Register.values()) {
-            registers.get(register).setSignedInt(0);
+    /**
+     * sets how often per second the changes of ram, registers and cycles
+     * are reported to the listeners while the emulation is running. The
+     * changes are also reported when the emulation stops.
+     * 
+     * @param flushesPerSecond 
+     */
+    public void setEventFlushRate(int flushesPerSecond) {
+        if (flushesPerSecond <= 0) {
+            throw new IllegalArgumentException("flushesPerSecond must be > 0");
         }
+        this.eventFlushInterval = 1_000_000_000L / flushesPerSecond;
+    }
+    
+    /**
+     * if set to false the emulation runs as fast as possible
+     * regardless of the simulation speed (turbo mode). Throttled
+     * by default.
+     * 
+     * @param throttled 
+     */
+    public void setThrottled(boolean throttled) {
+        this.throttled = throttled;
+        this.pacingChanged = true;
     }
 
-    private void resetRam() {
-        for (int i = 0; i < ram.length; ++i) {
-            ram[i].set(lastReadProgram[i]);
+    public boolean isThrottled() {
+        return throttled;
+    }
+    
+    public void clearRam() {
+        replacePages(ProgramImage.EMPTY.pages);
+        if (!batchingEvents) {
+            flushEvents();
         }
     }
     
+    public void clearRegisters() {
+        for (final Register register : REGISTERS) {
+            setRegisterValue(register, 0);
+        }
+    }
+
     /**
      * clears the ram and reads it from an input stream
      * 
@@ -195,63 +252,218 @@ public class DCPU {
      * @throws IOException 
      */
     public void readRam(InputStream in) throws IOException {
-        clearRam();
-        
-        final Word codePosition = new Word();
-        final Word word = new Word();
-        final DataInputStream dataIn = new DataInputStream(in);
-        try {
-            while (true) {
-                word.read(dataIn);
-                this.getRam(codePosition).set(word);
-                this.lastReadProgram[codePosition.unsignedIntValue()].set(word);
-
-                codePosition.inc();
-            }
-        } catch (EOFException e) {
-            //i know this is bad style: condition by 
-            //exception - but I have no choice here ...
-        }        
+        loadProgram(ProgramImage.read(in));
+    }
+    
+    /**
+     * clears the ram and loads the program. The ram is backed by the pages
+     * of the program until they are written, so the same image can be 
+     * loaded into many dcpus without copying it. The program is loaded
+     * again on {@link #reset()}.
+     * 
+     * @param program 
+     */
+    public void loadProgram(ProgramImage program) {
+        this.program = program;
+        replacePages(program.pages);
+        if (!batchingEvents) {
+            flushEvents();
+        }
+    }
+    
+    /**
+     * returns the last loaded program
+     * 
+     * @return 
+     */
+    public ProgramImage getProgram() {
+        return program;
     }
     
     public int getRamSize() {
-        return this.ram.length;
+        return PagedRam.SIZE;
     }
     
     /**
      * sets all registers to 0, clears the ram and
      * sets it to the last read program or to 0 if no
-     * program was loaded to ram before.
+     * program was loaded to ram before. The pages written
+     * by the program are simply dropped.
      */
     public synchronized void reset() {
         stop();
         clearRegisters();
-        clearRam();
-        skipNextInstructionIfConditional = false;
+        clearInterrupts();
         
-        resetRam();
+        loadProgram(program);
         this.setCpuCycles(0);
+        resetPacing();
+        resetDevices();
         notifyOnResetEmulation();
     }
     
+    /**
+     * returns the complete state of this dcpu: ram, registers, cycles,
+     * the queued interrupts and the state of all devices. The ram pages are
+     * shared with the snapshot and copied when they are written the next
+     * time. Must not be called while the emulation is running on its 
+     * own thread.
+     * 
+     * @return 
+     */
+    public synchronized Snapshot snapshot() {
+        if (isRunning()) {
+            throw new IllegalStateException("A snapshot can't be taken while the emulation is running");
+        }
+        
+        final int[] hardwareIds = new int[devices.size()];
+        final Object[] deviceStates = new Object[devices.size()];
+        final long[] deviceDeadlines = new long[devices.size()];
+        for (int i = 0; i < devices.size(); ++i) {
+            final Device device = devices.get(i);
+            hardwareIds[i] = device.getHardwareId();
+            deviceStates[i] = device.saveState();
+            deviceDeadlines[i] = deviceScheduler.deadlineOf(device);
+        }
+        return new Snapshot(ram.share(), registers.clone(), cpuCycles, interruptQueue.toArray(),
+                interruptQueueing, hardwareIds, deviceStates, deviceDeadlines);
+    }
+    
+    /**
+     * restores the given snapshot. The snapshot can be taken from another
+     * dcpu that has the same devices attached. Only the ram pages that 
+     * differ from the snapshot are replaced (by shared pages) and all 
+     * changes are reported to the listeners as a whole afterwards. Must not be called while the emulation is running
+     * on its own thread.
+     * 
+     * @param snapshot 
+     */
+    public synchronized void restore(Snapshot snapshot) {
+        if (isRunning()) {
+            throw new IllegalStateException("A snapshot can't be restored while the emulation is running");
+        }
+        if (snapshot.hardwareIds.length != devices.size()) {
+            throw new IllegalArgumentException("The snapshot was taken with " + snapshot.hardwareIds.length 
+                    + " devices but " + devices.size() + " are attached");
+        }
+        for (int i = 0; i < devices.size(); ++i) {
+            if (snapshot.hardwareIds[i] != devices.get(i).getHardwareId()) {
+                throw new IllegalArgumentException("The snapshot was taken with another device at index " + i);
+            }
+        }
+        
+        replacePages(snapshot.ram);
+        System.arraycopy(snapshot.registers, 0, this.registers, 0, this.registers.length);
+        this.cpuCycles = snapshot.cycles;
+        this.halted = false;
+        
+        clearInterrupts();
+        for (int message : snapshot.interrupts) {
+            this.interruptQueue.offer(message);
+        }
+        this.interruptPending = snapshot.interrupts.length > 0;
+        this.interruptQueueing = snapshot.interruptQueueing;
+        
+        for (int i = 0; i < devices.size(); ++i) {
+            devices.get(i).restoreState(this, snapshot.deviceStates[i]);
+        }
+        //the devices might have scheduled cycles while restoring their state
+        this.deviceScheduler.clear();
+        for (int i = 0; i < devices.size(); ++i) {
+            if (snapshot.deviceDeadlines[i] >= 0) {
+                this.deviceScheduler.schedule(devices.get(i), snapshot.deviceDeadlines[i]);
+            }
+        }
+        this.nextDeviceDeadline = this.deviceScheduler.nextDeadline();
+        resetPacing();
+        
+        if (eventsEnabled) {
+            dirtyRegisters |= subscribedRegisters;
+            cyclesChanged |= cyclesSubscribed;
+            flushEvents();
+        }
+    }
+    
+    /**
+     * returns a copy of this dcpu that continues from the current state:
+     * ram, registers, cycles, queued interrupts and settings. The ram pages
+     * are shared by both dcpus until one of them writes to a page, so
+     * forking only copies the page references. Devices, listeners, 
+     * breakpoints and ram watches are not copied - attach devices of the 
+     * same kind to the fork and restore a {@link #snapshot()} of this dcpu
+     * to continue with devices. Must not be called while the emulation is
+     * running on its own thread.
+     * 
+     * @return the fork
+     */
+    public synchronized DCPU fork() {
+        if (isRunning()) {
+            throw new IllegalStateException("The emulation can't be forked while it is running");
+        }
+        
+        final DCPU fork = new DCPU();
+        fork.replacePages(this.ram.share());
+        System.arraycopy(this.registers, 0, fork.registers, 0, this.registers.length);
+        fork.cpuCycles = this.cpuCycles;
+        for (int message : this.interruptQueue.toArray()) {
+            fork.interruptQueue.offer(message);
+        }
+        fork.interruptPending = !fork.interruptQueue.isEmpty();
+        fork.interruptQueueing = this.interruptQueueing;
+        fork.program = this.program;
+        fork.lineTable = this.lineTable;
+        fork.jitEnabled = this.jitEnabled;
+        fork.throttled = this.throttled;
+        fork.setSimulationSpeed(this.speedInHz);
+        return fork;
+    }
+    
+    /**
+     * replaces the ram pages by the given shared pages. Compiled blocks,
+     * ram watches and listeners are only notified for pages that differ.
+     * The changes are reported with the next flush of the events.
+     */
+    private void replacePages(char[][] pages) {
+        for (int page = 0; page < PagedRam.PAGES; ++page) {
+            if (this.ram.replacePage(page, pages[page])) {
+                final int fromAddress = page << PagedRam.PAGE_SHIFT;
+                this.blockCache.onRamWritten(fromAddress, fromAddress + PagedRam.PAGE_SIZE);
+                for (RamWatch watch : this.ramWatches) {
+                    for (int address = fromAddress; address < fromAddress + PagedRam.PAGE_SIZE; ++address) {
+                        watch.mark(address);
+                    }
+                }
+                if (eventsEnabled) {
+                    final int from = Math.max(fromAddress, subscribedRamFrom);
+                    final int to = Math.min(fromAddress + PagedRam.PAGE_SIZE, subscribedRamTo);
+                    for (int address = from; address < to; ++address) {
+                        dirtyRam.mark(address);
+                    }
+                }
+            }
+        }
+    }
+    
     /**
      * interpretes the next instruction
      */
     public void step() {
-        Integer lineNo = this.memoryToLineNoMapping.get(this.getPc());
-        if (lineNo != null) {
-            notifyOnNewLine(lineNo);
+        if (this.cpuCycles >= nextDeviceDeadline) {
+            runDueDevices();
+        }
+        if (interruptPending) {
+            triggerInterrupt();
         }
         
-        Word instructionBinary = this.getRam(this.getPc());
-        final Operation operation = Operation.getByOpcode(instructionBinary.getOperationCode(), instructionBinary.hasTwoOperandsAsInstruction() ? 2 : 1);
-        final Class<? extends Instruction> instructionClass = operation == null 
-                ? null 
-                : REGISTERED_INSTRUCTIONS.get(operation);
+        final int pc = this.registers[Register.PC.ordinal()];
+        trackLine(pc);
         
-        if (instructionClass == null) {
+        final DecodedInstruction instruction = InstructionDecoder.decode(ram.get(pc));
+        if (instruction == null) {
+            final Word instructionBinary = this.getRam(this.getPc());
             if (instructionBinary.getOperationCode() == 0) {
                 //=> DAT 0 means stop the execution
+                this.halted = true;
                 this.stop(false);
                 return;
             } else {
@@ -259,40 +471,419 @@ public class DCPU {
             }
         }
         
-        final Instruction instruction = instantiate(instructionClass);
+        execute(instruction, pc);
+    }
+    
+    /**
+     * executes the program on the calling thread until either the given
+     * amount of cycles was executed, the program halted, a breakpoint was
+     * reached or an error occurred. No events are fired and the execution
+     * is not throttled. The cycle budget can be exceeded by the cycles
+     * of the last instruction.
+     * 
+     * @param maxCycles the maximum cycles to execute
+     * @return the reason why the execution returned
+     */
+    public ExitReason run(long maxCycles) {
+        return runUntil(-1, maxCycles);
+    }
+    
+    /**
+     * like {@link #run(long)} but additionally stops before the
+     * instruction at the given address is executed
+     * 
+     * @param address the address to stop at or -1
+     * @param maxCycles the maximum cycles to execute
+     * @return the reason why the execution returned
+     */
+    public synchronized ExitReason runUntil(int address, long maxCycles) {
+        if (maxCycles < 0) {
+            throw new IllegalArgumentException("maxCycles must be >= 0");
+        }
+        if (isRunning()) {
+            throw new IllegalStateException("The emulation is already running");
+        }
 
-        if (instruction.getOperation().getParameterCount() == 2 && !instructionBinary.hasTwoOperandsAsInstruction()) {
-            throw new IllegalStateException(instruction.getOperation() + " expects 2 parameters but binary code has only 1");
-        } else
-            if (instruction.getOperation().getParameterCount() == 1 && instructionBinary.hasTwoOperandsAsInstruction()) {
-                throw new IllegalStateException(instruction.getOperation() + " expects 1 parameter but binary code has 2");
+        //saturated, so large budgets don't overflow
+        final long cycleLimit = maxCycles >= Long.MAX_VALUE - this.cpuCycles
+                ? Long.MAX_VALUE : this.cpuCycles + maxCycles;
+        this.runUntilAddress = address;
+        this.eventsEnabled = false;
+        this.halted = false;
+        this.lastError = null;
+        try {
+            //a breakpoint at the current pc is ignored, so one can
+            //continue the execution after a breakpoint was reached
+            boolean resumed = true;
+            while (true) {
+                if (halted) {
+                    return ExitReason.HALTED;
+                }
+                if (this.cpuCycles >= cycleLimit) {
+                    return ExitReason.BUDGET_EXHAUSTED;
+                }
+                if (!resumed && isBreakpoint(this.registers[Register.PC.ordinal()])) {
+                    return ExitReason.BREAKPOINT;
+                }
+                resumed = false;
+                stepBlock(cycleLimit);
             }
-
-        final List<Command> commands = new ArrayList<>();
-        final OperandResult operandAResult = getOperand(instructionBinary.getOperandA(), OperandMode.MODE_OPERAND_A);
-        commands.add(operandAResult.command);
+        } catch (RuntimeException e) {
+            this.lastError = e;
+            return ExitReason.ERROR;
+        } finally {
+            this.runUntilAddress = -1;
+            this.eventsEnabled = true;
+        }
+    }
+    
+    /**
+     * returns the error that ended the last call to {@link #run(long)}
+     * or the last emulation started with {@link #start()}. Returns null
+     * if it ended regularly.
+     * 
+     * @return 
+     */
+    public RuntimeException getLastError() {
+        return lastError;
+    }
+    
+    /**
+     * sets a breakpoint that makes {@link #run(long)} return
+     * before the instruction at the given address is executed
+     * 
+     * @param address 
+     */
+    public void addBreakpoint(int address) {
+        this.breakpoints.set(address & 0xFFFF);
+    }
+    
+    /**
+     * sets a breakpoint at the instruction on the given source line. 
+     * Returns false if there is no line table or no instruction 
+     * on that line.
+     * 
+     * @param line
+     * @return 
+     */
+    public boolean addLineBreakpoint(int line) {
+        final int address = lineTable != null ? lineTable.getAddress(line) : LineTable.NO_ADDRESS;
+        if (address == LineTable.NO_ADDRESS) {
+            return false;
+        }
+        addBreakpoint(address);
+        return true;
+    }
+    
+    public void removeBreakpoint(int address) {
+        this.breakpoints.clear(address & 0xFFFF);
+    }
+    
+    public void clearBreakpoints() {
+        this.breakpoints.clear();
+    }
+    
+    private boolean isBreakpoint(int address) {
+        return address == runUntilAddress || this.breakpoints.get(address);
+    }
+    
+    /**
+     * returns true if there is a breakpoint within the given range
+     */
+    private boolean hasBreakpoint(int fromAddress, int toAddress) {
+        if (runUntilAddress >= fromAddress && runUntilAddress < toAddress) {
+            return true;
+        }
+        final int breakpoint = this.breakpoints.nextSetBit(fromAddress);
+        return breakpoint >= 0 && breakpoint < toAddress;
+    }
+    
+    /**
+     * interpretes the basic block at the current pc using the
+     * block cache. Falls back to step() if no block can be decoded there.
+     * Stops before an instruction at a breakpoint or as soon as the
+     * given cycle limit or the next cycle a device is scheduled 
+     * for was reached.
+     */
+    private void stepBlock(long cycleLimit) {
+        if (this.cpuCycles >= nextDeviceDeadline) {
+            runDueDevices();
+        }
+        cycleLimit = Math.min(cycleLimit, nextDeviceDeadline);
+        
+        if (interruptPending && triggerInterrupt()) {
+            //give the caller the chance to check for a breakpoint
+            //at the interrupt handler
+            return;
+        }
         
-        if (instruction.getOperation().getParameterCount() == 2) {
-            final OperandResult operandBResult = getOperand(instructionBinary.getOperandB(), OperandMode.MODE_OPERAND_B);
-            commands.add(operandBResult.command);
-            commands.addAll(Arrays.asList(instruction.execute(operandBResult.cell, operandAResult.cell)));
-        } else {
-            commands.addAll(Arrays.asList(instruction.execute(operandAResult.cell)));
+        final int pc = this.registers[Register.PC.ordinal()];
+        final BasicBlock block = this.blockCache.getBlock(ram, pc);
+        if (block == null) {
+            step();
+            return;
         }
         
-        this.getPc().inc();
+        final DecodedInstruction[] instructions = block.getInstructions();
+        int index = 0;
+        int address = pc;
+        
+        if (jitEnabled
+                && cycleLimit - this.cpuCycles >= block.getCycles()
+                && !hasBreakpoint(pc, block.getEndAddress())) {
+            final CompiledBlock compiledBlock = block.enter(ram);
+            if (compiledBlock != null) {
+                final boolean reportRegisters = eventsEnabled && subscribedRegisters != 0;
+                if (reportRegisters) {
+                    System.arraycopy(registers, 0, registerSnapshot, 0, registers.length);
+                }
+                final int executed = compiledBlock.execute(this, ram.pages, registers);
+                
+                int cycles = 0;
+                for (; index < executed; ++index) {
+                    trackLine(address);
+                    cycles += instructions[index].getCycles();
+                    address += instructions[index].getLength();
+                }
+                
+                if (reportRegisters) {
+                    for (final Register register : REGISTERS) {
+                        if (registers[register.ordinal()] != registerSnapshot[register.ordinal()]) {
+                            notifyOnRegisterUpdated(register);
+                        }
+                    }
+                }
+                executeCycles(cycles);
+                
+                if (stop || this.registers[Register.PC.ordinal()] != address 
+                        || !this.blockCache.isValid(block)) {
+                    return;
+                }
+            }
+        }
         
-        //special handling for condition chainin
-        if (!skipNextInstructionIfConditional || 
-                (skipNextInstructionIfConditional && !instruction.getOperation().isCondition())) {
-            executeCommands(commands);
+        for (; index < instructions.length; ++index) {
+            if (index > 0 && (this.cpuCycles >= cycleLimit || isBreakpoint(address))) {
+                break;
+            }
             
-            if (skipNextInstructionIfConditional && !instruction.getOperation().isCondition()) {
-                skipNextInstructionIfConditional = false; //reached a non conditional statement - so we disable the chaining here
+            final DecodedInstruction instruction = instructions[index];
+            trackLine(address);
+            execute(instruction, address);
+            address += instruction.getLength();
+            
+            //leave the block if the program flow changed or the
+            //code beneath the block was modified
+            if (stop || this.registers[Register.PC.ordinal()] != address 
+                    || !this.blockCache.isValid(block)) {
+                break;
+            }
+        }
+    }
+    
+    /**
+     * triggers an interrupt with the given message. This can be called
+     * from any thread (e.g. by a device) without blocking - the interrupt
+     * is queued and triggered by the executing thread before the next
+     * block of instructions. If more than 256 interrupts are queued the 
+     * DCPU catches fire, which makes the emulation fail.
+     * 
+     * @param message
+     * @return false if the interrupt queue overflowed
+     */
+    public boolean interrupt(int message) {
+        final boolean queued = this.interruptQueue.offer(message & 0xFFFF);
+        if (!queued) {
+            this.interruptQueueOverflow = true;
+        }
+        this.interruptPending = true;
+        return queued;
+    }
+    
+    /**
+     * if set to true interrupts are queued instead of being 
+     * triggered (see IAQ). Enabled while an interrupt is handled.
+     * 
+     * @param interruptQueueing 
+     */
+    public void setInterruptQueueing(boolean interruptQueueing) {
+        this.interruptQueueing = interruptQueueing;
+    }
+
+    public boolean isInterruptQueueing() {
+        return interruptQueueing;
+    }
+    
+    /**
+     * triggers the oldest queued interrupt unless interrupt queueing is
+     * enabled. Interrupts are dropped if IA is 0. Returns true if an
+     * interrupt handler was entered.
+     */
+    private boolean triggerInterrupt() {
+        if (interruptQueueOverflow) {
+            throw new IllegalStateException("More than " + InterruptQueue.CAPACITY 
+                    + " interrupts were queued - the DCPU caught fire");
+        }
+        if (interruptQueueing) {
+            return false;
+        }
+        
+        final int message = this.interruptQueue.poll();
+        if (message == InterruptQueue.EMPTY) {
+            this.interruptPending = false;
+            //an interrupt might have been queued before the flag was cleared
+            if (!this.interruptQueue.isEmpty()) {
+                this.interruptPending = true;
             }
-        } else {
-            executeCommand(new NopCommand()); //skip a conditional command only at the cost of one cycle
+            return false;
         }
+        
+        final int ia = this.registers[Register.IA.ordinal()];
+        if (ia == 0) {
+            return false;
+        }
+        
+        this.interruptQueueing = true;
+        push(this.registers[Register.PC.ordinal()]);
+        push(this.registers[Register.A.ordinal()]);
+        setRegisterValue(Register.PC, ia);
+        setRegisterValue(Register.A, message);
+        return true;
+    }
+    
+    private void clearInterrupts() {
+        this.interruptQueue.clear();
+        this.interruptQueueing = false;
+        this.interruptQueueOverflow = false;
+        this.interruptPending = false;
+    }
+    
+    /**
+     * attaches the device to this dcpu. The device gets the next free
+     * hardware index (see HWN, HWQ and HWI).
+     * 
+     * @param device 
+     */
+    public synchronized void attachDevice(Device device) {
+        if (isRunning()) {
+            throw new IllegalStateException("Devices can't be attached while the emulation is running");
+        }
+        if (this.devices.size() >= 0x10000) {
+            throw new IllegalStateException("No more than 65536 devices can be attached");
+        }
+        this.devices.add(device);
+        device.onAttach(this);
+    }
+    
+    /**
+     * returns all attached devices in the order of 
+     * their hardware index
+     * 
+     * @return 
+     */
+    public List<Device> getDevices() {
+        return Collections.unmodifiableList(devices);
+    }
+    
+    /**
+     * returns the device with the given hardware index
+     * or null if there is none
+     * 
+     * @param index
+     * @return 
+     */
+    public Device getDevice(int index) {
+        return index >= 0 && index < this.devices.size() ? this.devices.get(index) : null;
+    }
+    
+    /**
+     * schedules a call to {@link Device#onScheduledCycle(DCPU, long)} of the
+     * device after the given amount of cycles. A former schedule of the 
+     * device is replaced. Must only be called on the thread executing 
+     * this dcpu (i.e. from within the device callbacks).
+     * 
+     * @param device the device
+     * @param cycles the cycles from now (at least 1)
+     */
+    public void schedule(Device device, long cycles) {
+        this.deviceScheduler.schedule(device, this.cpuCycles + Math.max(1L, cycles));
+        this.nextDeviceDeadline = this.deviceScheduler.nextDeadline();
+    }
+    
+    /**
+     * cancels the scheduled call of the given device
+     * 
+     * @param device 
+     */
+    public void cancelSchedule(Device device) {
+        this.deviceScheduler.cancel(device);
+        this.nextDeviceDeadline = this.deviceScheduler.nextDeadline();
+    }
+    
+    /**
+     * starts recording the writes to the given ram region. The region
+     * wraps around at the end of the ram. Must be called on the thread 
+     * executing this dcpu or while it is not running.
+     * 
+     * @param fromAddress the first address of the region
+     * @param length the length of the region in words
+     * @return the watch recording the writes
+     */
+    public RamWatch watchRam(int fromAddress, int length) {
+        if (length <= 0 || length > PagedRam.SIZE) {
+            throw new IllegalArgumentException("length must be > 0 and <= " + PagedRam.SIZE);
+        }
+        final RamWatch watch = new RamWatch(fromAddress, length);
+        final RamWatch[] watches = Arrays.copyOf(this.ramWatches, this.ramWatches.length + 1);
+        watches[watches.length - 1] = watch;
+        this.ramWatches = watches;
+        return watch;
+    }
+    
+    public void unwatchRam(RamWatch watch) {
+        final List<RamWatch> watches = new ArrayList<>(Arrays.asList(this.ramWatches));
+        watches.remove(watch);
+        this.ramWatches = watches.toArray(new RamWatch[watches.size()]);
+    }
+    
+    private void runDueDevices() {
+        Device device;
+        while ((device = this.deviceScheduler.pollDue(this.cpuCycles)) != null) {
+            this.nextDeviceDeadline = this.deviceScheduler.nextDeadline();
+            device.onScheduledCycle(this, this.cpuCycles);
+        }
+        this.nextDeviceDeadline = this.deviceScheduler.nextDeadline();
+    }
+    
+    private void resetDevices() {
+        this.deviceScheduler.clear();
+        this.nextDeviceDeadline = Long.MAX_VALUE;
+        for (Device device : devices) {
+            device.onReset(this);
+        }
+    }
+    
+    private void trackLine(int pc) {
+        if (!eventsEnabled || !linesSubscribed || lineTable == null) {
+            return;
+        }
+        
+        final int lineNo = this.lineTable.getLine(pc);
+        if (lineNo != LineTable.NO_LINE) {
+            notifyOnNewLine(lineNo);
+        }
+    }
+    
+    private void execute(DecodedInstruction instruction, int pc) {
+        final int operandA = instruction.getOperandA().getLocation(this, OperandMode.MODE_OPERAND_A);
+        final int operandB = instruction.getOperandB() != null 
+                ? instruction.getOperandB().getLocation(this, OperandMode.MODE_OPERAND_B)
+                : -1;
+        
+        this.setRegisterValue(Register.PC, this.getRegisterValue(Register.PC) + 1);
+        
+        final int additionalCycles = instruction.getInstruction().execute(this, operandB, operandA);
+        executeCycles(instruction.getCycles() + additionalCycles);
     }
     
     public synchronized void start() {
@@ -301,12 +892,36 @@ public class DCPU {
 
             @Override
             public void run() {
-                while (!stop) {
-                    step();
+                resetPacing();
+                lastError = null;
+                batchingEvents = true;
+                nextEventFlushTime = System.nanoTime() + eventFlushInterval;
+                nextEventFlushCheckCycles = cpuCycles + EVENT_FLUSH_CHECK_CYCLES;
+                try {
+                    while (!stop) {
+                        stepBlock(Long.MAX_VALUE);
+                        if (pacingChanged) {
+                            //the speed was changed by another thread
+                            pacingChanged = false;
+                            resetPacing();
+                        }
+                        if (throttled && cpuCycles >= nextPacingCycles) {
+                            pace();
+                        }
+                        if (cpuCycles >= nextEventFlushCheckCycles) {
+                            flushEventsIfDue();
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    //e.g. an unknown opcode or the dcpu caught fire
+                    lastError = e;
+                } finally {
+                    batchingEvents = false;
+                    flushEvents(true);
+                    runThread = null;
+                    stop = false;
+                    notifyOnStopEmulation();
                 }
-                runThread = null;
-                stop = false;
-                notifyOnStopEmulation();
             }
             
         };
@@ -335,48 +950,53 @@ public class DCPU {
         return this.runThread != null;
     }
     
-    private OperandResult getOperand(int operandCode, OperandMode operandMode) {
-        final Class<? extends Operand> operandClass = REGISTERED_OPERANDS.get(operandCode);
-        if (operandClass == null) {
-            throw new IllegalStateException("Operand " + String.format("0x%02x", operandCode) + " unknown");
+    private void executeCycles(int cycles) {
+        this.setCpuCycles(this.cpuCycles + cycles);
+    }
+    
+    /**
+     * waits until the real time caught up with the emulated time. This is
+     * done only once per quantum of cycles. The time to wait for is
+     * measured from a fixed anchor, so oversleeping is compensated
+     * in the following quanta.
+     */
+    private void pace() {
+        final long speedInHz = this.speedInHz;
+        long elapsedCycles = this.cpuCycles - pacingAnchorCycles;
+        while (elapsedCycles >= speedInHz) {
+            //move the anchor in steps of one second to prevent overflows
+            pacingAnchorCycles += speedInHz;
+            pacingAnchorTime += 1_000_000_000L;
+            elapsedCycles -= speedInHz;
         }
-        final Operand operand = instantiate(operandClass);
-        operand.setValue(operandCode);
         
-        final Word memoryCell = operand.getMemoryCell(this, operandMode);
-        final Command command = operand.additionalCommand(operandMode);
+        final long targetTime = pacingAnchorTime + elapsedCycles * 1_000_000_000L / speedInHz;
+        final long now = System.nanoTime();
+        if (targetTime > now) {
+            LockSupport.parkNanos(targetTime - now);
+        } else
+            if (now - targetTime > MAX_PACING_LAG) {
+                //we are way behind (e.g. the host was busy) - so we
+                //continue from here instead of trying to catch up
+                resetPacing();
+                return;
+            }
         
-        return new OperandResult(memoryCell, command);
+        nextPacingCycles = this.cpuCycles + cyclesPerQuantum;
     }
     
-    private void executeCommands(final Collection<Command> commands) {
-        for (final Command command : commands) {
-            executeCommand(command);
-        }
+    private void resetPacing() {
+        pacingAnchorTime = System.nanoTime();
+        pacingAnchorCycles = this.cpuCycles;
+        nextPacingCycles = this.cpuCycles + cyclesPerQuantum;
     }
     
-    private void executeCommand(final Command command) {
-        if (command != null) {
-            command.execute(this);
-            
-            //the command eats up a cpu cycle only
-            //if this is intended - otherwise the command is "just" executed
-            //without notic
-            if (command.isNeedsDcpuCyle()) {
-                this.setCpuCycles(this.cpuCycles + 1);
-
-                long timePassed = System.nanoTime() - lastCommandExecution;
-                if (timePassed < timePerCycle) {
-                    long timeToSleep = timePerCycle - timePassed;
-                    try {
-                        Thread.sleep(timeToSleep / 1_000_000L, (int)(timeToSleep % 1_000_000));
-                    } catch (InterruptedException ex) {
-                        //ignore
-                    }
-                }
-
-                lastCommandExecution = System.nanoTime();
-            }
+    private void flushEventsIfDue() {
+        nextEventFlushCheckCycles = cpuCycles + EVENT_FLUSH_CHECK_CYCLES;
+        final long now = System.nanoTime();
+        if (now >= nextEventFlushTime) {
+            flushEvents();
+            nextEventFlushTime = now + eventFlushInterval;
         }
     }
     
@@ -386,18 +1006,195 @@ public class DCPU {
     }
     
     /**
-     * the memory cell is returned directly and can therefore be
-     * directly manipulated! That's also why there is no set method!
+     * returns the value stored at the given location. A location
+     * is either a ram address, a register or a literal value
+     * 
+     * @param location
+     * @return 
+     * @see #ramLocation(int) 
+     * @see #registerLocation(de.darkblue.dcpu.interpreter.Register) 
+     * @see #literalLocation(int) 
+     */
+    public int read(int location) {
+        if (location < LOCATION_REGISTER) {
+            return this.ram.get(location);
+        } else
+            if (location < LOCATION_LITERAL) {
+                return this.registers[location & 0xFF];
+            } else {
+                return location & 0xFFFF;
+            }
+    }
+    
+    /**
+     * writes the value to the given location. Writing to
+     * a literal location is silently ignored.
+     * 
+     * @param location
+     * @param value 
+     */
+    public void write(int location, int value) {
+        if (location < LOCATION_REGISTER) {
+            setRamValue(location, value);
+        } else
+            if (location < LOCATION_LITERAL) {
+                setRegisterValue(REGISTERS[location & 0xFF], value);
+            }
+    }
+    
+    /**
+     * increases the pc and returns the word it then points to
+     * 
+     * @return 
+     */
+    public int nextWord() {
+        final int pc = (this.getRegisterValue(Register.PC) + 1) & 0xFFFF;
+        this.setRegisterValue(Register.PC, pc);
+        return this.getRamValue(pc);
+    }
+    
+    /**
+     * copies words from the buffer to the ram, starting at the given
+     * address and wrapping around at the end of the ram. The words are
+     * copied in bulk (e.g. by devices doing DMA) and reported to the
+     * listeners as a whole.
+     * 
+     * @param address the first address to write to
+     * @param source the buffer to read the words from
+     * @param length the amount of words to copy
+     */
+    public void loadRam(int address, CharBuffer source, int length) {
+        int position = address & 0xFFFF;
+        int remaining = length;
+        while (remaining > 0) {
+            final int chunk = Math.min(remaining, PagedRam.SIZE - position);
+            this.ram.put(position, source, chunk);
+            onRamWritten(position, position + chunk);
+            position = (position + chunk) & 0xFFFF;
+            remaining -= chunk;
+        }
+    }
+    
+    /**
+     * copies words from the ram to the buffer, starting at the given
+     * address and wrapping around at the end of the ram
+     * 
+     * @param address the first address to read from
+     * @param target the buffer to write the words to
+     * @param length the amount of words to copy
+     */
+    public void storeRam(int address, CharBuffer target, int length) {
+        int position = address & 0xFFFF;
+        int remaining = length;
+        while (remaining > 0) {
+            final int chunk = Math.min(remaining, PagedRam.SIZE - position);
+            this.ram.get(position, target, chunk);
+            position = (position + chunk) & 0xFFFF;
+            remaining -= chunk;
+        }
+    }
+    
+    private void onRamWritten(int fromAddress, int toAddress) {
+        this.blockCache.onRamWritten(fromAddress, toAddress);
+        for (RamWatch watch : this.ramWatches) {
+            for (int address = fromAddress; address < toAddress; ++address) {
+                watch.mark(address);
+            }
+        }
+        
+        if (eventsEnabled) {
+            final int from = Math.max(fromAddress, subscribedRamFrom);
+            final int to = Math.min(toAddress, subscribedRamTo);
+            for (int address = from; address < to; ++address) {
+                dirtyRam.mark(address);
+            }
+            if (from < to && !batchingEvents) {
+                flushEvents();
+            }
+        }
+    }
+    
+    /**
+     * pushes the value onto the stack
+     * 
+     * @param value 
+     */
+    public void push(int value) {
+        final int sp = (this.registers[Register.SP.ordinal()] - 1) & 0xFFFF;
+        setRegisterValue(Register.SP, sp);
+        setRamValue(sp, value);
+    }
+    
+    /**
+     * pops the topmost value from the stack
+     * 
+     * @return 
+     */
+    public int pop() {
+        final int sp = this.registers[Register.SP.ordinal()];
+        setRegisterValue(Register.SP, sp + 1);
+        return this.ram.get(sp);
+    }
+    
+    public int getRamValue(int address) {
+        return this.ram.get(address & 0xFFFF);
+    }
+    
+    public void setRamValue(int address, int value) {
+        final int position = address & 0xFFFF;
+        final char newValue = (char) value;
+        if (this.ram.get(position) != newValue) {
+            this.ram.set(position, newValue);
+            this.blockCache.onRamWritten(position);
+            if (this.ramWatches.length != 0) {
+                for (RamWatch watch : this.ramWatches) {
+                    watch.mark(position);
+                }
+            }
+            notifyOnRamUpdated(position);
+        }
+    }
+    
+    public int getRegisterValue(Register register) {
+        return this.registers[register.ordinal()];
+    }
+    
+    public void setRegisterValue(Register register, int value) {
+        final int newValue = value & 0xFFFF;
+        if (this.registers[register.ordinal()] != newValue) {
+            this.registers[register.ordinal()] = newValue;
+            notifyOnRegisterUpdated(register);
+        }
+    }
+    
+    public static int ramLocation(int address) {
+        return address & 0xFFFF;
+    }
+    
+    public static int registerLocation(Register register) {
+        return LOCATION_REGISTER | register.ordinal();
+    }
+    
+    public static int literalLocation(int value) {
+        return LOCATION_LITERAL | (value & 0xFFFF);
+    }
+    
+    /**
+     * returns a copy of the memory cell at the given position. Changes
+     * to the returned word are not written back - use 
+     * {@link #setRamValue(int, int)} for that.
      * 
      * @param position
      * @return 
      */
     public Word getRam(Word position) {
-        return this.ram[position.unsignedIntValue()];
+        final Word word = new Word();
+        word.setUnsignedInt(this.ram.get(position.unsignedIntValue()));
+        return word;
     }
 
     /**
-     * return the EX register as memory cell.
+     * returns a copy of the EX register.
      * 
      * @return 
      */
@@ -406,7 +1203,7 @@ public class DCPU {
     }
 
     /**
-     * return the PC register as memory cell.
+     * returns a copy of the PC register.
      * 
      * @return 
      */
@@ -415,7 +1212,7 @@ public class DCPU {
     }
 
     /**
-     * return the IA register as memory cell.
+     * returns a copy of the IA register.
      * 
      * @return 
      */
@@ -424,7 +1221,7 @@ public class DCPU {
     }
 
     /**
-     * return the ex register as memory cell.
+     * returns a copy of the SP register.
      * 
      * @return 
      */
@@ -433,92 +1230,210 @@ public class DCPU {
     }
     
     /**
-     * returns the word of the given register
+     * returns a copy of the word of the given register. Changes
+     * to the returned word are not written back - use 
+     * {@link #setRegisterValue(de.darkblue.dcpu.interpreter.Register, int)}
+     * for that.
      * 
      * @param register
      * @return 
      */
     public Word getRegister(Register register) {
-        return this.registers.get(register);
+        final Word word = new Word();
+        word.setUnsignedInt(this.registers[register.ordinal()]);
+        return word;
     }
     
+    /**
+     * registers a listener for all events
+     * 
+     * @param listener 
+     */
     public void registerListener(DCPUListener listener) {
-        this.listeners.add(listener);
+        registerListener(listener, DCPUSubscription.all());
     }
     
-    public void removeListener(DCPUListener listener) {
-        this.listeners.remove(listener);
+    /**
+     * registers a listener for the events of the given subscription. Changes
+     * to the subscription after the registration have no effect.
+     * 
+     * @param listener
+     * @param subscription 
+     */
+    public synchronized void registerListener(DCPUListener listener, DCPUSubscription subscription) {
+        removeListener(listener);
+        this.subscribers.add(new Subscriber(listener, subscription));
+        updateSubscriptions();
     }
     
-    private Set<DCPUListener> getListenerCopy() {
-        synchronized (this.listeners) {
-            return new HashSet<>(this.listeners);
+    public synchronized void removeListener(DCPUListener listener) {
+        for (Subscriber subscriber : this.subscribers) {
+            if (subscriber.listener == listener) {
+                this.subscribers.remove(subscriber);
+            }
         }
+        updateSubscriptions();
     }
     
-    private void notifyOnRamUpdated(Word position) {
-        for (DCPUListener listener : getListenerCopy()) {
-            listener.onRamValueChanged(this, position);
+    /**
+     * combines the subscriptions of all listeners, so events 
+     * nobody is interested in can be skipped early
+     */
+    private void updateSubscriptions() {
+        int ramFrom = 0x10000;
+        int ramTo = 0;
+        int registerMask = 0;
+        boolean cycles = false;
+        boolean lines = false;
+        for (Subscriber subscriber : this.subscribers) {
+            if (subscriber.ramFrom < subscriber.ramTo) {
+                ramFrom = Math.min(ramFrom, subscriber.ramFrom);
+                ramTo = Math.max(ramTo, subscriber.ramTo);
+            }
+            registerMask |= subscriber.registerMask;
+            cycles |= subscriber.cycleInterval > 0;
+            lines |= subscriber.lines;
+        }
+        this.subscribedRamFrom = ramFrom;
+        this.subscribedRamTo = ramTo;
+        this.subscribedRegisters = registerMask;
+        this.cyclesSubscribed = cycles;
+        this.linesSubscribed = lines;
+    }
+    
+    private void notifyOnRamUpdated(int address) {
+        if (eventsEnabled && address >= subscribedRamFrom && address < subscribedRamTo) {
+            dirtyRam.mark(address);
+            if (!batchingEvents) {
+                flushEvents();
+            }
         }
     }
     
     private void notifyOnRegisterUpdated(Register register) {
-        for (DCPUListener listener : getListenerCopy()) {
-            listener.onRegisterValueChanged(this, register);
+        if (eventsEnabled && (subscribedRegisters & (1 << register.ordinal())) != 0) {
+            dirtyRegisters |= 1 << register.ordinal();
+            if (!batchingEvents) {
+                flushEvents();
+            }
         }
     }
     
+    /**
+     * reports all changes recorded since the last flush to the listeners
+     */
+    private void flushEvents() {
+        flushEvents(false);
+    }
+    
+    /**
+     * reports all changes recorded since the last flush to the listeners.
+     * On the final flush (when the emulation stops) the cycles are reported 
+     * to all cycle subscribers that did not get them yet, regardless of 
+     * their interval.
+     */
+    private void flushEvents(boolean finalFlush) {
+        if (finalFlush && cyclesSubscribed) {
+            cyclesChanged = true;
+        }
+        if (dirtyRam.isEmpty() && dirtyRegisters == 0 && !cyclesChanged && pendingLine < 0) {
+            return;
+        }
+        
+        int address = dirtyRam.nextDirty(0);
+        while (address >= 0) {
+            final int endAddress = dirtyRam.nextClean(address);
+            for (Subscriber subscriber : this.subscribers) {
+                final int from = Math.max(address, subscriber.ramFrom);
+                final int to = Math.min(endAddress, subscriber.ramTo);
+                if (from < to) {
+                    subscriber.listener.onRamValuesChanged(this, from, to);
+                }
+            }
+            address = endAddress < PagedRam.SIZE ? dirtyRam.nextDirty(endAddress) : -1;
+        }
+        dirtyRam.clear();
+        
+        if (dirtyRegisters != 0) {
+            for (final Register register : REGISTERS) {
+                final int registerBit = 1 << register.ordinal();
+                if ((dirtyRegisters & registerBit) != 0) {
+                    for (Subscriber subscriber : this.subscribers) {
+                        if ((subscriber.registerMask & registerBit) != 0) {
+                            subscriber.listener.onRegisterValueChanged(this, register);
+                        }
+                    }
+                }
+            }
+            dirtyRegisters = 0;
+        }
+        
+        if (cyclesChanged) {
+            cyclesChanged = false;
+            for (Subscriber subscriber : this.subscribers) {
+                final boolean due = finalFlush 
+                        ? subscriber.cycleInterval > 0 && subscriber.lastReportedCycles != this.cpuCycles
+                        : subscriber.isCycleUpdateDue(this.cpuCycles);
+                if (due) {
+                    subscriber.lastReportedCycles = this.cpuCycles;
+                    subscriber.listener.onCyclesUpdate(this, this.cpuCycles);
+                }
+            }
+        }
+        
+        if (pendingLine >= 0) {
+            final int lineNo = pendingLine;
+            pendingLine = -1;
+            for (Subscriber subscriber : this.subscribers) {
+                if (subscriber.lines) {
+                    subscriber.listener.onNewLine(this, lineNo);
+                }
+            }
+        }
+    }
     
     private void notifyOnStartEmulation() {
-        for (DCPUListener listener : getListenerCopy()) {
-            listener.onStartEmulation(this);
+        for (Subscriber subscriber : this.subscribers) {
+            subscriber.listener.onStartEmulation(this);
         }
     }    
     
     private void notifyOnStopEmulation() {
-        for (DCPUListener listener : getListenerCopy()) {
-            listener.onStopEmulation(this);
+        for (Subscriber subscriber : this.subscribers) {
+            subscriber.listener.onStopEmulation(this);
         }
     }    
     
     private void notifyOnResetEmulation() {
-        for (DCPUListener listener : getListenerCopy()) {
-            listener.onResetEmulation(this);
+        for (Subscriber subscriber : this.subscribers) {
+            subscriber.listener.onResetEmulation(this);
         }
     }        
     
     private void notifyOnCycle() {
-        for (DCPUListener listener : getListenerCopy()) {
-            listener.onCyclesUpdate(this, this.cpuCycles);
+        if (eventsEnabled && cyclesSubscribed) {
+            cyclesChanged = true;
+            if (!batchingEvents) {
+                flushEvents();
+            }
         }
-    }    
+    }
     
+    /**
+     * while the emulation is running only the
+     * latest line is reported
+     */
     private void notifyOnNewLine(int lineNo) {
-        for (DCPUListener listener : getListenerCopy()) {
-            listener.onNewLine(this, lineNo);
+        if (eventsEnabled && linesSubscribed) {
+            pendingLine = lineNo;
+            if (!batchingEvents) {
+                flushEvents();
+            }
         }
     }    
     
-    private static <T> T instantiate(Class<T> clazz) {
-        try {
-            return clazz.newInstance();
-        } catch (InstantiationException | IllegalAccessException ex) {
-            throw new IllegalStateException("Could not instantiate " + clazz);
-        }
-    }
-
     public long getCycles() {
         return this.cpuCycles;
     }
     
-    private static class OperandResult {
-        private final Word cell;
-        private final Command command;
-
-        public OperandResult(Word cell, Command command) {
-            this.cell = cell;
-            this.command = command;
-        }
-    }
-    
 }
@@ -16,11 +16,11 @@
  */
 package de.darkblue.dcpu.interpreter;
 
-import de.darkblue.dcpu.parser.instructions.Word;
-
 /**
  * A listener that is called whenever a value in ram or
- * in a register changes or when the emulator is started, stoped or reset
+ * in a register changes or when the emulator is started, stoped or reset.
+ * While the emulation is running the changes are collected and reported 
+ * in batches (see {@link DCPU#setEventFlushRate(int)}).
  * 
  * @author Florian Frankenberger
  */
@@ -32,7 +32,14 @@ public interface DCPUListener {
     
     void onResetEmulation(DCPU dcpu);
     
-    void onRamValueChanged(DCPU dcpu, Word position);
+    /**
+     * called when the ram values in the given range changed
+     * 
+     * @param dcpu the dcpu
+     * @param fromAddress the first changed address
+     * @param toAddress the address following the last changed address
+     */
+    void onRamValuesChanged(DCPU dcpu, int fromAddress, int toAddress);
     
     void onRegisterValueChanged(DCPU dcpu, Register register);
     
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many DCPUs on a fixed pool of worker threads. The DCPUs are executed
+ * round robin in slices of a fixed amount of cycles (the quantum) multiplied
+ * by their priority, so a DCPU with priority 2 gets twice the cycles of a
+ * DCPU with priority 1. Every DCPU can be limited to a total cycle quota.
+ * <p/>
+ * A DCPU is removed from the round robin when it halts (DAT 0), runs into
+ * an error or used up its quota. Reaching a breakpoint pauses it.
+ * 
+ * @author Florian Frankenberger
+ */
+public class DCPUScheduler {
+    
+    public static final long DEFAULT_QUANTUM = 10_000;
+    
+    public static enum State {
+        RUNNABLE,
+        PAUSED,
+        FINISHED
+    }
+    
+    /**
+     * a DCPU that was submitted to the scheduler
+     */
+    public static final class Task {
+        
+        private final DCPUScheduler scheduler;
+        private final DCPU dcpu;
+        private final int priority;
+        
+        private long remainingCycles;
+        private long executedCycles = 0L;
+        private boolean queued = false;
+        private boolean paused = false;
+        private boolean finished = false;
+        private ExitReason lastExitReason = null;
+        private RuntimeException error = null;
+
+        private Task(DCPUScheduler scheduler, DCPU dcpu, int priority, long cycleQuota) {
+            this.scheduler = scheduler;
+            this.dcpu = dcpu;
+            this.priority = priority;
+            this.remainingCycles = cycleQuota;
+        }
+
+        public DCPU getDcpu() {
+            return dcpu;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+        
+        public synchronized long getExecutedCycles() {
+            return executedCycles;
+        }
+        
+        public synchronized State getState() {
+            if (finished) {
+                return State.FINISHED;
+            }
+            return paused ? State.PAUSED : State.RUNNABLE;
+        }
+        
+        /**
+         * the reason why the last slice of this task ended or null 
+         * if no slice was executed yet
+         * 
+         * @return 
+         */
+        public synchronized ExitReason getLastExitReason() {
+            return lastExitReason;
+        }
+
+        /**
+         * the error that finished this task or null
+         * 
+         * @return 
+         */
+        public synchronized RuntimeException getError() {
+            return error;
+        }
+        
+        /**
+         * pauses this task. Does not wait - if a slice is currently 
+         * executed the task pauses as soon as the slice ended.
+         */
+        public synchronized void pause() {
+            this.paused = true;
+        }
+        
+        /**
+         * resumes a paused task
+         */
+        public synchronized void resume() {
+            this.paused = false;
+            enqueue();
+        }
+        
+        /**
+         * removes this task from the scheduler
+         */
+        public synchronized void cancel() {
+            finish();
+        }
+        
+        /**
+         * waits until this task is finished
+         * 
+         * @throws InterruptedException 
+         */
+        public synchronized void awaitFinished() throws InterruptedException {
+            while (!finished) {
+                wait();
+            }
+        }
+        
+        private void enqueue() {
+            if (scheduler.shutdown) {
+                finish();
+            } else if (!queued && !finished && !paused) {
+                queued = true;
+                scheduler.readyQueue.add(this);
+            }
+        }
+        
+        private void finish() {
+            this.finished = true;
+            this.queued = false;
+            scheduler.tasks.remove(this);
+            notifyAll();
+        }
+        
+        /**
+         * returns the cycles to execute in the next slice or 0 if
+         * the task must not run
+         */
+        private synchronized long beginSlice(long quantum) {
+            if (finished || paused) {
+                queued = false;
+                return 0L;
+            }
+            final long sliceCycles = quantum > Long.MAX_VALUE / priority ? Long.MAX_VALUE : quantum * priority;
+            return Math.min(sliceCycles, remainingCycles);
+        }
+        
+        /**
+         * returns true if the task has to be queued again
+         */
+        private synchronized boolean endSlice(long cycles, ExitReason exitReason, RuntimeException error) {
+            this.executedCycles += cycles;
+            this.remainingCycles -= cycles;
+            this.lastExitReason = exitReason;
+            
+            switch (exitReason) {
+                case BREAKPOINT:
+                    paused = true;
+                    break;
+                case HALTED:
+                    finished = true;
+                    break;
+                case ERROR:
+                    this.error = error;
+                    finished = true;
+                    break;
+                default:
+                    if (remainingCycles <= 0) {
+                        finished = true;
+                    }
+                    break;
+            }
+            
+            if (finished) {
+                finish();
+                return false;
+            }
+            if (paused) {
+                queued = false;
+                notifyAll();
+                return false;
+            }
+            return true;
+        }
+        
+    }
+    
+    private final BlockingQueue<Task> readyQueue = new LinkedBlockingQueue<>();
+    private final Set<Task> tasks = Collections.newSetFromMap(new ConcurrentHashMap<Task, Boolean>());
+    private final Task shutdownMarker = new Task(this, null, 1, 1L);
+    private final ExecutorService workers;
+    private final int workerCount;
+    private final long quantum;
+    private volatile boolean shutdown = false;
+
+    public DCPUScheduler(int workerCount) {
+        this(workerCount, DEFAULT_QUANTUM);
+    }
+    
+    /**
+     * creates a new scheduler
+     * 
+     * @param workerCount the number of worker threads
+     * @param quantum the cycles a DCPU with priority 1 executes per slice
+     */
+    public DCPUScheduler(int workerCount, long quantum) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount must be > 0");
+        }
+        if (quantum <= 0) {
+            throw new IllegalArgumentException("quantum must be > 0");
+        }
+        this.quantum = quantum;
+        this.workerCount = workerCount;
+        this.workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+
+            private final AtomicInteger counter = new AtomicInteger();
+            
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "DCPU scheduler worker " + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+            
+        });
+        
+        for (int i = 0; i < workerCount; ++i) {
+            workers.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        Task task;
+                        while ((task = readyQueue.take()) != shutdownMarker) {
+                            executeSlice(task);
+                        }
+                    } catch (InterruptedException e) {
+                        //shutdown
+                    }
+                }
+                
+            });
+        }
+    }
+    
+    /**
+     * submits a DCPU with priority 1 and without a cycle quota
+     * 
+     * @param dcpu
+     * @return 
+     */
+    public Task submit(DCPU dcpu) {
+        return submit(dcpu, 1, Long.MAX_VALUE);
+    }
+    
+    /**
+     * submits a DCPU to this scheduler. The DCPU must not be started
+     * or submitted to another scheduler.
+     * 
+     * @param dcpu the DCPU to run
+     * @param priority the weight of the DCPU's slices (>= 1)
+     * @param cycleQuota the total cycles the DCPU may execute
+     * @return 
+     */
+    public Task submit(DCPU dcpu, int priority, long cycleQuota) {
+        if (priority < 1) {
+            throw new IllegalArgumentException("priority must be >= 1");
+        }
+        if (cycleQuota <= 0) {
+            throw new IllegalArgumentException("cycleQuota must be > 0");
+        }
+        
+        final Task task = new Task(this, dcpu, priority, cycleQuota);
+        tasks.add(task);
+        synchronized (task) {
+            task.enqueue();
+        }
+        return task;
+    }
+    
+    /**
+     * stops all worker threads and waits for them. Slices being executed 
+     * are finished first, no new slices are started. All tasks that are
+     * not finished yet are cancelled afterwards.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (int i = 0; i < workerCount; ++i) {
+            readyQueue.add(shutdownMarker);
+        }
+        workers.shutdown();
+        
+        boolean interrupted = false;
+        while (!workers.isTerminated()) {
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        
+        for (Task task : tasks) {
+            task.cancel();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void executeSlice(Task task) {
+        if (shutdown) {
+            return;
+        }
+        final long cycles = task.beginSlice(quantum);
+        if (cycles <= 0) {
+            return;
+        }
+        
+        final DCPU dcpu = task.getDcpu();
+        final long cyclesBefore = dcpu.getCycles();
+        ExitReason exitReason;
+        RuntimeException error = null;
+        try {
+            exitReason = dcpu.run(cycles);
+            error = dcpu.getLastError();
+        } catch (RuntimeException e) {
+            exitReason = ExitReason.ERROR;
+            error = e;
+        }
+        
+        if (task.endSlice(dcpu.getCycles() - cyclesBefore, exitReason, error)) {
+            readyQueue.add(task);
+        }
+    }
+    
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+/**
+ * Declares which events a {@link DCPUListener} wants to receive. Events
+ * nobody subscribed to are not even recorded by the emulator. The start, 
+ * stop and reset events are always delivered.
+ * <p/>
+ * A new subscription contains no events at all, use the chained
+ * methods to add them:
+ * <pre>
+ * new DCPUSubscription().ram(0x8000, 0x8180).registers(Register.PC).lines();
+ * </pre>
+ * 
+ * @author Florian Frankenberger
+ */
+public final class DCPUSubscription {
+    
+    private int ramFrom = 0;
+    private int ramTo = 0;
+    private int registerMask = 0;
+    private long cycleInterval = 0L;
+    private boolean lines = false;
+
+    /**
+     * returns a subscription to all events
+     * 
+     * @return 
+     */
+    public static DCPUSubscription all() {
+        return new DCPUSubscription()
+                .ram(0, 0x10000)
+                .registers(Register.values())
+                .cycles(1)
+                .lines();
+    }
+    
+    /**
+     * subscribes to the changes of the ram in the given range
+     * 
+     * @param fromAddress the first address
+     * @param toAddress the address following the last address
+     * @return 
+     */
+    public DCPUSubscription ram(int fromAddress, int toAddress) {
+        if (fromAddress < 0 || toAddress > 0x10000 || fromAddress > toAddress) {
+            throw new IllegalArgumentException("Invalid ram range " + fromAddress + " - " + toAddress);
+        }
+        this.ramFrom = fromAddress;
+        this.ramTo = toAddress;
+        return this;
+    }
+    
+    /**
+     * subscribes to the changes of the given registers
+     * 
+     * @param registers
+     * @return 
+     */
+    public DCPUSubscription registers(Register... registers) {
+        for (Register register : registers) {
+            this.registerMask |= 1 << register.ordinal();
+        }
+        return this;
+    }
+    
+    /**
+     * subscribes to the cycle updates. An update is only delivered if at
+     * least the given amount of cycles passed since the last one.
+     * 
+     * @param interval
+     * @return 
+     */
+    public DCPUSubscription cycles(long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be > 0");
+        }
+        this.cycleInterval = interval;
+        return this;
+    }
+    
+    /**
+     * subscribes to the line changes
+     * 
+     * @return 
+     */
+    public DCPUSubscription lines() {
+        this.lines = true;
+        return this;
+    }
+
+    public int getRamFrom() {
+        return ramFrom;
+    }
+
+    public int getRamTo() {
+        return ramTo;
+    }
+    
+    public boolean isRamSubscribed() {
+        return ramFrom < ramTo;
+    }
+
+    /**
+     * the subscribed registers as bit mask by their ordinal
+     * 
+     * @return 
+     */
+    public int getRegisterMask() {
+        return registerMask;
+    }
+
+    /**
+     * the cycle interval or 0 if not subscribed to cycles
+     * 
+     * @return 
+     */
+    public long getCycleInterval() {
+        return cycleInterval;
+    }
+
+    public boolean isLinesSubscribed() {
+        return lines;
+    }
+    
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import de.darkblue.dcpu.interpreter.instructions.Instruction;
+import de.darkblue.dcpu.interpreter.operands.Operand;
+import de.darkblue.dcpu.parser.instructions.Operation;
+
+/**
+ * A fully decoded instruction word. Instances are created once by the
+ * {@link InstructionDecoder} and shared by all emulators - so they must
+ * never be changed.
+ * 
+ * @author Florian Frankenberger
+ */
+public final class DecodedInstruction {
+
+    private final Operation operation;
+    private final Instruction instruction;
+    private final Operand operandA;
+    private final Operand operandB;
+    private final int length;
+    private final int cycles;
+    private final boolean endOfBasicBlock;
+
+    DecodedInstruction(Operation operation, Instruction instruction, Operand operandA, Operand operandB, 
+            int baseCycles, boolean endOfBasicBlock) {
+        this.operation = operation;
+        this.instruction = instruction;
+        this.operandA = operandA;
+        this.operandB = operandB;
+        
+        int totalLength = 1;
+        int totalCycles = baseCycles;
+        if (operandA.hasNextWord()) {
+            totalLength++;
+        }
+        totalCycles += operandA.getCycles();
+        if (operandB != null) {
+            if (operandB.hasNextWord()) {
+                totalLength++;
+            }
+            totalCycles += operandB.getCycles();
+        }
+        this.length = totalLength;
+        this.cycles = totalCycles;
+        this.endOfBasicBlock = endOfBasicBlock;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public Instruction getInstruction() {
+        return instruction;
+    }
+
+    public Operand getOperandA() {
+        return operandA;
+    }
+
+    /**
+     * returns the operand b or null if the operation
+     * only has one parameter
+     * 
+     * @return 
+     */
+    public Operand getOperandB() {
+        return operandB;
+    }
+
+    /**
+     * the length of the instruction in words including
+     * the additional words of the operands (1-3)
+     * 
+     * @return 
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * the base cycle cost of the instruction including
+     * the cost of its operands
+     * 
+     * @return 
+     */
+    public int getCycles() {
+        return cycles;
+    }
+
+    /**
+     * returns true if this instruction ends a basic block because it
+     * is a conditional or may change the pc
+     * 
+     * @return 
+     */
+    public boolean isEndOfBasicBlock() {
+        return endOfBasicBlock;
+    }
+
+    @Override
+    public String toString() {
+        return operation.toString();
+    }
+    
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+/**
+ * A hardware device that can be attached to a DCPU (see
+ * {@link DCPU#attachDevice(Device)}). Devices are not polled: all methods
+ * are called on the thread executing the DCPU, either when the program
+ * sends a hardware interrupt (HWI) or when a cycle the device asked for
+ * with {@link DCPU#schedule(Device, long)} was reached.
+ *
+ * @author Florian Frankenberger
+ */
+public interface Device {
+
+    /**
+     * the 32 bit hardware id reported by HWQ
+     *
+     * @return
+     */
+    int getHardwareId();
+
+    /**
+     * the 16 bit hardware version reported by HWQ
+     *
+     * @return
+     */
+    int getVersion();
+
+    /**
+     * the 32 bit manufacturer id reported by HWQ
+     *
+     * @return
+     */
+    int getManufacturer();
+
+    /**
+     * called when the device was attached to the given dcpu
+     *
+     * @param dcpu
+     */
+    void onAttach(DCPU dcpu);
+
+    /**
+     * called when the program sends a hardware interrupt (HWI)
+     * to this device
+     *
+     * @param dcpu the dcpu
+     * @return cpu cycles needed in addition to the cycles of HWI
+     */
+    int onInterrupt(DCPU dcpu);
+
+    /**
+     * called when the cycle this device was scheduled
+     * for was reached
+     *
+     * @param dcpu the dcpu
+     * @param cycles the current cycles of the dcpu
+     */
+    void onScheduledCycle(DCPU dcpu, long cycles);
+
+    /**
+     * called when the dcpu is reset. All scheduled cycles
+     * of the device were already dropped.
+     *
+     * @param dcpu
+     */
+    void onReset(DCPU dcpu);
+
+    /**
+     * returns the state of the device for a snapshot of the dcpu (see
+     * {@link DCPU#snapshot()}). Resources of the host (e.g. files, streams
+     * or pressed keys) are not part of the state. The returned object
+     * must not be changed afterwards.
+     *
+     * @return
+     */
+    Object saveState();
+
+    /**
+     * restores a state returned by {@link #saveState()} of a device of
+     * the same kind. Scheduled cycles are restored by the dcpu afterwards.
+     *
+     * @param dcpu the dcpu
+     * @param state the saved state
+     */
+    void restoreState(DCPU dcpu, Object state);
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import java.util.Arrays;
+
+/**
+ * The cycles the devices of a DCPU want to be called at, kept in a binary
+ * min heap. Every device has at most one scheduled cycle, scheduling it
+ * again replaces the former one.
+ *
+ * @author Florian Frankenberger
+ */
+final class DeviceScheduler {
+
+    private Device[] devices = new Device[8];
+    private long[] deadlines = new long[8];
+    private int size = 0;
+
+    /**
+     * returns the earliest scheduled cycle or Long.MAX_VALUE
+     * if nothing is scheduled
+     *
+     * @return
+     */
+    long nextDeadline() {
+        return size > 0 ? deadlines[0] : Long.MAX_VALUE;
+    }
+
+    void schedule(Device device, long deadline) {
+        final int index = indexOf(device);
+        if (index >= 0) {
+            deadlines[index] = deadline;
+            siftDown(siftUp(index));
+            return;
+        }
+
+        if (size == devices.length) {
+            devices = Arrays.copyOf(devices, size * 2);
+            deadlines = Arrays.copyOf(deadlines, size * 2);
+        }
+        devices[size] = device;
+        deadlines[size] = deadline;
+        siftUp(size++);
+    }
+
+    void cancel(Device device) {
+        final int index = indexOf(device);
+        if (index >= 0) {
+            removeAt(index);
+        }
+    }
+
+    /**
+     * removes and returns the device with the earliest scheduled cycle
+     * if that cycle was reached. Returns null otherwise.
+     *
+     * @param cycles the current cycles
+     * @return
+     */
+    Device pollDue(long cycles) {
+        if (size == 0 || deadlines[0] > cycles) {
+            return null;
+        }
+        final Device device = devices[0];
+        removeAt(0);
+        return device;
+    }
+
+    /**
+     * returns the scheduled cycle of the device or -1 if
+     * it is not scheduled
+     *
+     * @param device
+     * @return
+     */
+    long deadlineOf(Device device) {
+        final int index = indexOf(device);
+        return index >= 0 ? deadlines[index] : -1L;
+    }
+
+    void clear() {
+        Arrays.fill(devices, 0, size, null);
+        size = 0;
+    }
+
+    private int indexOf(Device device) {
+        for (int i = 0; i < size; ++i) {
+            if (devices[i] == device) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        size--;
+        if (index != size) {
+            devices[index] = devices[size];
+            deadlines[index] = deadlines[size];
+            devices[size] = null;
+            siftDown(siftUp(index));
+        } else {
+            devices[size] = null;
+        }
+    }
+
+    private int siftUp(int index) {
+        while (index > 0) {
+            final int parent = (index - 1) >> 1;
+            if (deadlines[parent] <= deadlines[index]) {
+                break;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+        return index;
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            final int left = 2 * index + 1;
+            if (left >= size) {
+                return;
+            }
+            final int right = left + 1;
+            final int child = right < size && deadlines[right] < deadlines[left] ? right : left;
+            if (deadlines[index] <= deadlines[child]) {
+                return;
+            }
+            swap(index, child);
+            index = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        final Device device = devices[i];
+        devices[i] = devices[j];
+        devices[j] = device;
+        final long deadline = deadlines[i];
+        deadlines[i] = deadlines[j];
+        deadlines[j] = deadline;
+    }
+
+}
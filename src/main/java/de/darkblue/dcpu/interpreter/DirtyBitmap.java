@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import java.util.Arrays;
+
+/**
+ * Records which ram cells were changed. Besides one bit per word there is
+ * one bit per page of 256 words, so clean pages can be skipped quickly
+ * when the changed ranges are collected.
+ * 
+ * @author Florian Frankenberger
+ */
+final class DirtyBitmap {
+    
+    private static final int PAGE_SHIFT = 8;
+    private static final int WORDS_PER_PAGE = 1 << PAGE_SHIFT;
+    
+    private final int size;
+    private final long[] words;
+    private final long[] pages;
+    private boolean empty = true;
+
+    DirtyBitmap(int size) {
+        this.size = size;
+        this.words = new long[(size + 63) >> 6];
+        this.pages = new long[(((size + WORDS_PER_PAGE - 1) >> PAGE_SHIFT) + 63) >> 6];
+    }
+    
+    void mark(int address) {
+        this.words[address >> 6] |= 1L << address;
+        final int page = address >> PAGE_SHIFT;
+        this.pages[page >> 6] |= 1L << page;
+        this.empty = false;
+    }
+
+    boolean isEmpty() {
+        return empty;
+    }
+    
+    /**
+     * returns the first changed address at or after the given
+     * address or -1 if there is none
+     * 
+     * @param fromAddress
+     * @return 
+     */
+    int nextDirty(int fromAddress) {
+        int page = fromAddress >> PAGE_SHIFT;
+        int address = fromAddress;
+        while (address < size) {
+            if ((this.pages[page >> 6] & (1L << page)) == 0) {
+                //skip the whole clean page
+                page++;
+                address = page << PAGE_SHIFT;
+                continue;
+            }
+            
+            final int pageEnd = Math.min(size, (page + 1) << PAGE_SHIFT);
+            while (address < pageEnd) {
+                final long bits = this.words[address >> 6] & (-1L << address);
+                if (bits != 0) {
+                    return ((address >> 6) << 6) + Long.numberOfTrailingZeros(bits);
+                }
+                address = ((address >> 6) + 1) << 6;
+            }
+            page++;
+        }
+        return -1;
+    }
+    
+    /**
+     * returns the first unchanged address at or after the 
+     * given address or the size if there is none
+     * 
+     * @param fromAddress
+     * @return 
+     */
+    int nextClean(int fromAddress) {
+        int address = fromAddress;
+        while (address < size) {
+            final long bits = ~this.words[address >> 6] & (-1L << address);
+            if (bits != 0) {
+                return Math.min(size, ((address >> 6) << 6) + Long.numberOfTrailingZeros(bits));
+            }
+            address = ((address >> 6) + 1) << 6;
+        }
+        return size;
+    }
+    
+    void clear() {
+        if (!empty) {
+            Arrays.fill(this.words, 0L);
+            Arrays.fill(this.pages, 0L);
+            this.empty = true;
+        }
+    }
+    
+}
@@ -14,29 +14,35 @@
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
+
 package de.darkblue.dcpu.interpreter;
 
 /**
- * Represents a command that is executed in one cycle within the dcpu
+ * The reason why {@link DCPU#run(long)} returned
  * 
  * @author Florian Frankenberger
  */
-public abstract class Command {
-
-    private final boolean needsDcpuCyle;
-
-    public Command() {
-        this(true); //default: need one cycle to execute
-    }
-
-    public Command(boolean needsCpuCyle) {
-        this.needsDcpuCyle = needsCpuCyle;
-    }
-
-    public boolean isNeedsDcpuCyle() {
-        return needsDcpuCyle;
-    }
+public enum ExitReason {
+    
+    /**
+     * the given cycle budget was used up
+     */
+    BUDGET_EXHAUSTED,
+    
+    /**
+     * the program reached a DAT 0
+     */
+    HALTED,
+    
+    /**
+     * the pc reached a breakpoint or the address to run to
+     */
+    BREAKPOINT,
     
-    public abstract void execute(DCPU dcpu);
+    /**
+     * the program could not be executed any further (see
+     * {@link DCPU#getLastError()})
+     */
+    ERROR
     
 }
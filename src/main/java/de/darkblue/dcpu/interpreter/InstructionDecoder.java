@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import de.darkblue.dcpu.interpreter.instructions.Instruction;
+import de.darkblue.dcpu.interpreter.operands.Operand;
+import de.darkblue.dcpu.parser.instructions.Operation;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Decodes instruction words. All 65536 possible words are decoded
+ * once when this class is loaded so decoding an instruction at runtime
+ * is just an array lookup. The instructions and operands are taken from
+ * the InstructionRegistry that is generated at build time by the
+ * {@link de.darkblue.dcpu.processor.RegistryProcessor}.
+ * 
+ * @author Florian Frankenberger
+ */
+public final class InstructionDecoder {
+
+    private static final int OPERAND_CODE_PC = 0x1c;
+    
+    private static final DecodedInstruction[] DECODE_TABLE = new DecodedInstruction[0x10000];
+    
+    /**
+     * length in words (bits 0-1) and conditional flag (bit 2) of every word -
+     * independent of the instruction or the operands being implemented
+     */
+    private static final byte[] SKIP_TABLE = new byte[0x10000];
+    private static final int SKIP_CONDITIONAL = 0b100;
+    private static final int SKIP_LENGTH_MASK = 0b011;
+    
+    static {
+        final Map<Operation, Instruction> instructions = new EnumMap<>(Operation.class);
+        final Map<Operation, Integer> instructionCycles = new EnumMap<>(Operation.class);
+        final Operand[] operands = new Operand[0x40];
+        
+        InstructionRegistry.registerInstructions(instructions, instructionCycles);
+        InstructionRegistry.registerOperands(operands);
+        
+        for (int word = 0; word < DECODE_TABLE.length; ++word) {
+            DECODE_TABLE[word] = decode(word, instructions, instructionCycles, operands);
+            SKIP_TABLE[word] = skipEntry(word);
+        }
+    }
+    
+    private InstructionDecoder() {
+    }
+    
+    /**
+     * returns the decoded form of the given instruction word or
+     * null if the word does not represent a known instruction
+     * 
+     * @param instructionWord
+     * @return 
+     */
+    public static DecodedInstruction decode(int instructionWord) {
+        return DECODE_TABLE[instructionWord & 0xFFFF];
+    }
+    
+    /**
+     * returns the length in words of the instruction with 
+     * the given first word
+     * 
+     * @param instructionWord
+     * @return 
+     */
+    public static int getLength(int instructionWord) {
+        return SKIP_TABLE[instructionWord & 0xFFFF] & SKIP_LENGTH_MASK;
+    }
+    
+    /**
+     * returns true if the given word is a conditional (IFx) instruction
+     * 
+     * @param instructionWord
+     * @return 
+     */
+    public static boolean isConditional(int instructionWord) {
+        return (SKIP_TABLE[instructionWord & 0xFFFF] & SKIP_CONDITIONAL) != 0;
+    }
+    
+    private static byte skipEntry(int word) {
+        final int operationCode = word & 0b0000_0000_0001_1111;
+        final boolean twoOperands = operationCode > 0;
+        
+        int length = 1;
+        if (hasNextWord((word >> 10) & 0b0000_0000_0011_1111)) {
+            length++;
+        }
+        if (twoOperands && hasNextWord((word >> 5) & 0b0000_0000_0001_1111)) {
+            length++;
+        }
+        
+        final Operation operation = Operation.getByOpcode(twoOperands ? operationCode : (word >> 5) & 0b0000_0000_0001_1111, 
+                twoOperands ? 2 : 1);
+        final boolean conditional = operation != null && operation.isCondition();
+        return (byte) (length | (conditional ? SKIP_CONDITIONAL : 0));
+    }
+    
+    /**
+     * returns true if the operand with the given code reads the next word
+     * ([register + next word], [SP + next word], [next word] and next word)
+     */
+    private static boolean hasNextWord(int operandCode) {
+        return (operandCode >= 0x10 && operandCode <= 0x17) || operandCode == 0x1a 
+                || operandCode == 0x1e || operandCode == 0x1f;
+    }
+    
+    private static DecodedInstruction decode(int word, Map<Operation, Instruction> instructions, 
+            Map<Operation, Integer> instructionCycles, Operand[] operands) {
+        final boolean twoOperands = (word & 0b0000_0000_0001_1111) > 0;
+        final int operationCode = twoOperands 
+                ? word & 0b0000_0000_0001_1111 
+                : (word >> 5) & 0b0000_0000_0001_1111;
+        
+        final Operation operation = Operation.getByOpcode(operationCode, twoOperands ? 2 : 1);
+        final Instruction instruction = operation == null ? null : instructions.get(operation);
+        if (instruction == null) {
+            return null;
+        }
+        
+        final int operandCodeB = (word >> 5) & 0b0000_0000_0001_1111;
+        final Operand operandA = operands[(word >> 10) & 0b0000_0000_0011_1111];
+        final Operand operandB = twoOperands ? operands[operandCodeB] : null;
+        if (operandA == null || (twoOperands && operandB == null)) {
+            return null;
+        }
+        
+        //conditionals, all special instructions (JSR, INT, RFI ...) and
+        //any instruction writing to the PC end a basic block
+        final boolean endOfBasicBlock = operation.isCondition() || !twoOperands 
+                || operandCodeB == OPERAND_CODE_PC;
+        
+        return new DecodedInstruction(operation, instruction, operandA, operandB, 
+                instructionCycles.get(operation), endOfBasicBlock);
+    }
+    
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The queue of the 256 interrupts a DCPU can hold. Any thread may offer
+ * interrupts without locking, but only the thread executing the DCPU
+ * may poll them (multi producer, single consumer). Every slot carries a
+ * sequence number telling whether it is free for the producer at a
+ * given position or filled for the consumer.
+ *
+ * @author Florian Frankenberger
+ */
+final class InterruptQueue {
+
+    static final int CAPACITY = 256;
+    static final int EMPTY = -1;
+
+    private static final int MASK = CAPACITY - 1;
+
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private final int[] messages = new int[CAPACITY];
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+
+    InterruptQueue() {
+        for (int i = 0; i < CAPACITY; ++i) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * appends the message. Can be called from any thread.
+     *
+     * @param message
+     * @return false if the queue is full
+     */
+    boolean offer(int message) {
+        long position = tail.get();
+        while (true) {
+            final long sequence = sequences.get((int) position & MASK);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else
+                if (sequence < position) {
+                    //the slot was not yet consumed one round ago
+                    return false;
+                } else {
+                    //another producer took this position
+                    position = tail.get();
+                }
+        }
+
+        final int slot = (int) position & MASK;
+        messages[slot] = message;
+        sequences.lazySet(slot, position + 1);
+        return true;
+    }
+
+    /**
+     * removes the oldest message. Must only be called by the
+     * thread executing the DCPU.
+     *
+     * @return the message or {@link #EMPTY}
+     */
+    int poll() {
+        final int slot = (int) head & MASK;
+        if (sequences.get(slot) != head + 1) {
+            return EMPTY;
+        }
+
+        final int message = messages[slot];
+        sequences.lazySet(slot, head + CAPACITY);
+        head++;
+        return message;
+    }
+
+    boolean isEmpty() {
+        return sequences.get((int) head & MASK) != head + 1;
+    }
+
+    /**
+     * returns the queued messages without removing them. Must only be
+     * called by the thread executing the DCPU.
+     *
+     * @return
+     */
+    int[] toArray() {
+        final int[] queued = new int[CAPACITY];
+        int count = 0;
+        for (long position = head; count < CAPACITY; ++position) {
+            final int slot = (int) position & MASK;
+            if (sequences.get(slot) != position + 1) {
+                break;
+            }
+            queued[count++] = messages[slot];
+        }
+        return Arrays.copyOf(queued, count);
+    }
+
+    /**
+     * drops all queued messages. Must only be called by the
+     * thread executing the DCPU.
+     */
+    void clear() {
+        while (poll() != EMPTY) {
+            //drop it
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import java.util.Arrays;
+
+/**
+ * Maps memory addresses to the source lines of the instructions stored
+ * there and vice versa. Both directions are a single array lookup.
+ * 
+ * @author Florian Frankenberger
+ */
+public final class LineTable {
+    
+    public static final int NO_LINE = -1;
+    public static final int NO_ADDRESS = -1;
+    
+    private final int[] addressToLine = new int[0x10000];
+    private int[] lineToAddress = new int[64];
+
+    public LineTable() {
+        Arrays.fill(this.addressToLine, NO_LINE);
+        Arrays.fill(this.lineToAddress, NO_ADDRESS);
+    }
+    
+    /**
+     * records that the instruction at the given address
+     * originates from the given line
+     * 
+     * @param address
+     * @param line 
+     */
+    public void put(int address, int line) {
+        if (line < 0) {
+            throw new IllegalArgumentException("line must be >= 0");
+        }
+        
+        final int position = address & 0xFFFF;
+        final int previousLine = this.addressToLine[position];
+        if (previousLine != NO_LINE && this.lineToAddress[previousLine] == position) {
+            this.lineToAddress[previousLine] = NO_ADDRESS;
+        }
+        this.addressToLine[position] = line;
+        
+        if (line >= this.lineToAddress.length) {
+            final int oldLength = this.lineToAddress.length;
+            this.lineToAddress = Arrays.copyOf(this.lineToAddress, Math.max(line + 1, oldLength * 2));
+            Arrays.fill(this.lineToAddress, oldLength, this.lineToAddress.length, NO_ADDRESS);
+        }
+        this.lineToAddress[line] = position;
+    }
+    
+    /**
+     * returns the line of the instruction at the given
+     * address or {@link #NO_LINE}
+     * 
+     * @param address
+     * @return 
+     */
+    public int getLine(int address) {
+        return this.addressToLine[address & 0xFFFF];
+    }
+    
+    /**
+     * returns the address of the instruction on the given
+     * line or {@link #NO_ADDRESS}
+     * 
+     * @param line
+     * @return 
+     */
+    public int getAddress(int line) {
+        return line >= 0 && line < this.lineToAddress.length 
+                ? this.lineToAddress[line] 
+                : NO_ADDRESS;
+    }
+    
+}
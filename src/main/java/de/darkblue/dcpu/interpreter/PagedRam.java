@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * The ram of a DCPU split into pages of 256 words. Pages can be shared
+ * with other DCPUs (see {@link DCPU#fork()}) and snapshots - a shared page
+ * is never written, instead it is copied to a private page on the first
+ * write. So sharing the ram only copies the page references and the
+ * memory needed grows with the pages that were actually written.
+ *
+ * @author Florian Frankenberger
+ */
+public final class PagedRam {
+
+    public static final int SIZE = 0x10000;
+    public static final int PAGE_SHIFT = 8;
+    public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    public static final int PAGE_MASK = PAGE_SIZE - 1;
+    public static final int PAGES = SIZE >> PAGE_SHIFT;
+
+    static final char[] ZERO_PAGE = new char[PAGE_SIZE];
+
+    final char[][] pages = new char[PAGES][];
+    private final boolean[] privatePages = new boolean[PAGES];
+
+    PagedRam() {
+        Arrays.fill(pages, ZERO_PAGE);
+    }
+
+    public int get(int address) {
+        return pages[address >> PAGE_SHIFT][address & PAGE_MASK];
+    }
+
+    void set(int address, char value) {
+        writablePage(address >> PAGE_SHIFT)[address & PAGE_MASK] = value;
+    }
+
+    /**
+     * copies words from the buffer to the ram. The range must
+     * not exceed the end of the ram.
+     *
+     * @param address the first address to write to
+     * @param source
+     * @param length
+     */
+    void put(int address, CharBuffer source, int length) {
+        int position = address;
+        final int end = address + length;
+        while (position < end) {
+            final int chunk = Math.min(end - position, PAGE_SIZE - (position & PAGE_MASK));
+            source.get(writablePage(position >> PAGE_SHIFT), position & PAGE_MASK, chunk);
+            position += chunk;
+        }
+    }
+
+    /**
+     * copies words from the ram to the buffer. The range must
+     * not exceed the end of the ram.
+     *
+     * @param address the first address to read from
+     * @param target
+     * @param length
+     */
+    void get(int address, CharBuffer target, int length) {
+        int position = address;
+        final int end = address + length;
+        while (position < end) {
+            final int chunk = Math.min(end - position, PAGE_SIZE - (position & PAGE_MASK));
+            target.put(pages[position >> PAGE_SHIFT], position & PAGE_MASK, chunk);
+            position += chunk;
+        }
+    }
+
+    /**
+     * returns the pages of this ram for sharing. All pages become shared,
+     * so neither this ram nor the receiver of the pages changes them.
+     *
+     * @return
+     */
+    char[][] share() {
+        Arrays.fill(privatePages, false);
+        return pages.clone();
+    }
+
+    /**
+     * replaces the page with a shared one
+     *
+     * @param page the index of the page
+     * @param sharedPage the page
+     * @return true if the page was replaced by a different one
+     */
+    boolean replacePage(int page, char[] sharedPage) {
+        if (pages[page] == sharedPage) {
+            return false;
+        }
+        pages[page] = sharedPage;
+        privatePages[page] = false;
+        return true;
+    }
+
+    private char[] writablePage(int page) {
+        if (!privatePages[page]) {
+            pages[page] = pages[page].clone();
+            privatePages[page] = true;
+        }
+        return pages[page];
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * An immutable program that can be loaded into any number of DCPUs (see
+ * {@link DCPU#loadProgram(ProgramImage)}). The ram of a DCPU is backed by
+ * the pages of the image until the program writes to them, so the program
+ * is kept in memory only once no matter how many DCPUs run it.
+ *
+ * @author Florian Frankenberger
+ */
+public final class ProgramImage {
+
+    static final ProgramImage EMPTY = new ProgramImage(new char[0]);
+
+    final char[][] pages = new char[PagedRam.PAGES][];
+    private final int length;
+
+    /**
+     * @param words the program (at most 65536 words) - the words are copied
+     */
+    public ProgramImage(char[] words) {
+        if (words.length > PagedRam.SIZE) {
+            throw new IllegalArgumentException("A program can't be longer than " + PagedRam.SIZE + " words");
+        }
+        this.length = words.length;
+        for (int page = 0; page < PagedRam.PAGES; ++page) {
+            final int fromAddress = page << PagedRam.PAGE_SHIFT;
+            this.pages[page] = fromAddress < words.length
+                    ? Arrays.copyOfRange(words, fromAddress, fromAddress + PagedRam.PAGE_SIZE)
+                    : PagedRam.ZERO_PAGE;
+        }
+    }
+
+    /**
+     * reads a program of big endian words from the stream
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static ProgramImage read(InputStream in) throws IOException {
+        final char[] words = new char[PagedRam.SIZE];
+        int codePosition = 0;
+        final DataInputStream dataIn = new DataInputStream(in);
+        try {
+            while (codePosition < words.length) {
+                words[codePosition] = dataIn.readChar();
+                codePosition++;
+            }
+        } catch (EOFException e) {
+            //i know this is bad style: condition by 
+            //exception - but I have no choice here ...
+        }
+        return new ProgramImage(Arrays.copyOf(words, codePosition));
+    }
+
+    /**
+     * the length of the program in words
+     *
+     * @return
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public int getValue(int address) {
+        return pages[(address & 0xFFFF) >> PagedRam.PAGE_SHIFT][address & PagedRam.PAGE_MASK];
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+/**
+ * Records which words of a ram region were written since it was last
+ * cleared (see {@link DCPU#watchRam(int, int)}). Meant for devices that
+ * map a part of the ram, so they only have to look at the changed words.
+ * Watches are updated on the thread executing the DCPU.
+ *
+ * @author Florian Frankenberger
+ */
+public final class RamWatch {
+
+    private final int fromAddress;
+    private final int length;
+    private final DirtyBitmap dirty;
+
+    RamWatch(int fromAddress, int length) {
+        this.fromAddress = fromAddress & 0xFFFF;
+        this.length = length;
+        this.dirty = new DirtyBitmap(length);
+    }
+
+    void mark(int address) {
+        final int offset = (address - fromAddress) & 0xFFFF;
+        if (offset < length) {
+            dirty.mark(offset);
+        }
+    }
+
+    public int getFromAddress() {
+        return fromAddress;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * returns true if any word of the region was written
+     *
+     * @return
+     */
+    public boolean isDirty() {
+        return !dirty.isEmpty();
+    }
+
+    /**
+     * returns the first written offset (relative to the start of
+     * the region) at or after the given offset or -1 if there is none
+     *
+     * @param fromOffset
+     * @return
+     */
+    public int nextDirty(int fromOffset) {
+        return dirty.nextDirty(fromOffset);
+    }
+
+    public void clear() {
+        dirty.clear();
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+/**
+ * The complete state of a DCPU at one cycle: ram, registers, cycles, the
+ * queued interrupts and the state of the attached devices (see
+ * {@link DCPU#snapshot()} and {@link DCPU#restore(Snapshot)}). A snapshot
+ * is immutable, so it can be restored any number of times. The ram pages
+ * are shared with the DCPU they were taken from.
+ *
+ * @author Florian Frankenberger
+ */
+public final class Snapshot {
+
+    final char[][] ram;
+    final int[] registers;
+    final long cycles;
+    final int[] interrupts;
+    final boolean interruptQueueing;
+    final int[] hardwareIds;
+    final Object[] deviceStates;
+    final long[] deviceDeadlines;
+
+    Snapshot(char[][] ram, int[] registers, long cycles, int[] interrupts, boolean interruptQueueing,
+            int[] hardwareIds, Object[] deviceStates, long[] deviceDeadlines) {
+        this.ram = ram;
+        this.registers = registers;
+        this.cycles = cycles;
+        this.interrupts = interrupts;
+        this.interruptQueueing = interruptQueueing;
+        this.hardwareIds = hardwareIds;
+        this.deviceStates = deviceStates;
+        this.deviceDeadlines = deviceDeadlines;
+    }
+
+    public int getRamValue(int address) {
+        return ram[(address & 0xFFFF) >> PagedRam.PAGE_SHIFT][address & PagedRam.PAGE_MASK];
+    }
+
+    public int getRegisterValue(Register register) {
+        return registers[register.ordinal()];
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter.devices;
+
+import de.darkblue.dcpu.interpreter.DCPU;
+import de.darkblue.dcpu.interpreter.Device;
+import de.darkblue.dcpu.interpreter.Register;
+
+/**
+ * A generic clock. The ticks are scheduled in emulated cycles (derived
+ * from the simulation speed), so a program sees the same ticks whether
+ * the emulation is throttled or not.
+ *
+ * @author Florian Frankenberger
+ */
+public class GenericClock implements Device {
+
+    private static final int HARDWARE_ID = 0x12d0b402;
+    private static final int VERSION = 1;
+    private static final int MANUFACTURER = 0;
+
+    private static final int SET_TICK_RATE = 0;
+    private static final int GET_TICKS = 1;
+    private static final int SET_INTERRUPT_MESSAGE = 2;
+
+    private static final int TICKS_PER_SECOND = 60;
+
+    private int divider = 0;
+    private int interruptMessage = 0;
+    private int ticks = 0;
+    private long startCycles;
+    private long nextTick;
+
+    private static final class State {
+
+        private final int divider;
+        private final int interruptMessage;
+        private final int ticks;
+        private final long startCycles;
+        private final long nextTick;
+
+        private State(int divider, int interruptMessage, int ticks, long startCycles, long nextTick) {
+            this.divider = divider;
+            this.interruptMessage = interruptMessage;
+            this.ticks = ticks;
+            this.startCycles = startCycles;
+            this.nextTick = nextTick;
+        }
+
+    }
+
+    @Override
+    public int getHardwareId() {
+        return HARDWARE_ID;
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public int getManufacturer() {
+        return MANUFACTURER;
+    }
+
+    @Override
+    public void onAttach(DCPU dcpu) {
+    }
+
+    @Override
+    public int onInterrupt(DCPU dcpu) {
+        switch (dcpu.getRegisterValue(Register.A)) {
+            case SET_TICK_RATE:
+                this.divider = dcpu.getRegisterValue(Register.B);
+                this.ticks = 0;
+                this.startCycles = dcpu.getCycles();
+                this.nextTick = 1;
+                if (divider != 0) {
+                    scheduleNextTick(dcpu);
+                } else {
+                    dcpu.cancelSchedule(this);
+                }
+                break;
+            case GET_TICKS:
+                dcpu.setRegisterValue(Register.C, ticks);
+                break;
+            case SET_INTERRUPT_MESSAGE:
+                this.interruptMessage = dcpu.getRegisterValue(Register.B);
+                break;
+        }
+        return 0;
+    }
+
+    @Override
+    public void onScheduledCycle(DCPU dcpu, long cycles) {
+        this.ticks = (ticks + 1) & 0xFFFF;
+        if (interruptMessage != 0) {
+            dcpu.interrupt(interruptMessage);
+        }
+        this.nextTick++;
+        scheduleNextTick(dcpu);
+    }
+
+    @Override
+    public void onReset(DCPU dcpu) {
+        this.divider = 0;
+        this.interruptMessage = 0;
+        this.ticks = 0;
+    }
+
+    @Override
+    public Object saveState() {
+        return new State(divider, interruptMessage, ticks, startCycles, nextTick);
+    }
+
+    @Override
+    public void restoreState(DCPU dcpu, Object state) {
+        final State saved = (State) state;
+        this.divider = saved.divider;
+        this.interruptMessage = saved.interruptMessage;
+        this.ticks = saved.ticks;
+        this.startCycles = saved.startCycles;
+        this.nextTick = saved.nextTick;
+    }
+
+    /**
+     * the n-th tick is due at startCycles + n * divider * hz / 60. It is
+     * computed from the start, so rounding errors don't add up.
+     */
+    private void scheduleNextTick(DCPU dcpu) {
+        final long dueCycles = startCycles + nextTick * divider * dcpu.getSimulationSpeed() / TICKS_PER_SECOND;
+        dcpu.schedule(this, dueCycles - dcpu.getCycles());
+    }
+
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter.devices;
+
+import de.darkblue.dcpu.interpreter.DCPU;
+import de.darkblue.dcpu.interpreter.Device;
+import de.darkblue.dcpu.interpreter.Register;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A generic keyboard. Keys are fed by exactly one host thread (e.g. the
+ * Swing event dispatch thread via {@link #createKeyListener()} or a test
+ * replaying scripted input via {@link #type(String)}). Typed keys are
+ * passed to the DCPU through a single producer/single consumer ring and
+ * the pressed keys through a bitmap, so feeding keys never blocks and
+ * never takes a lock shared with the executing thread.
+ * <p/>
+ * Like specified every typed, pressed and released key raises an interrupt
+ * (if an interrupt message was set). Scripted input can batch the interrupts
+ * of typed keys instead (see {@link #setBatchingInterrupts(boolean)}).
+ *
+ * @author Florian Frankenberger
+ */
+public class GenericKeyboard implements Device {
+
+    public static final int KEY_BACKSPACE = 0x10;
+    public static final int KEY_RETURN = 0x11;
+    public static final int KEY_INSERT = 0x12;
+    public static final int KEY_DELETE = 0x13;
+    public static final int KEY_ARROW_UP = 0x80;
+    public static final int KEY_ARROW_DOWN = 0x81;
+    public static final int KEY_ARROW_LEFT = 0x82;
+    public static final int KEY_ARROW_RIGHT = 0x83;
+    public static final int KEY_SHIFT = 0x90;
+    public static final int KEY_CONTROL = 0x91;
+
+    private static final int HARDWARE_ID = 0x30cf7406;
+    private static final int VERSION = 1;
+    private static final int MANUFACTURER = 0;
+
+    private static final int CLEAR_BUFFER = 0;
+    private static final int GET_NEXT_KEY = 1;
+    private static final int IS_PRESSED = 2;
+    private static final int SET_INTERRUPT_MESSAGE = 3;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final KeyBuffer buffer = new KeyBuffer(BUFFER_SIZE);
+    private final AtomicLongArray pressedKeys = new AtomicLongArray(4);
+    private volatile DCPU dcpu;
+    private volatile int interruptMessage = 0;
+    private volatile boolean batchingInterrupts = false;
+
+    @Override
+    public int getHardwareId() {
+        return HARDWARE_ID;
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public int getManufacturer() {
+        return MANUFACTURER;
+    }
+
+    @Override
+    public void onAttach(DCPU dcpu) {
+        this.dcpu = dcpu;
+    }
+
+    @Override
+    public int onInterrupt(DCPU dcpu) {
+        switch (dcpu.getRegisterValue(Register.A)) {
+            case CLEAR_BUFFER:
+                buffer.clear();
+                break;
+            case GET_NEXT_KEY:
+                dcpu.setRegisterValue(Register.C, buffer.poll());
+                break;
+            case IS_PRESSED:
+                dcpu.setRegisterValue(Register.C, isPressed(dcpu.getRegisterValue(Register.B)) ? 1 : 0);
+                break;
+            case SET_INTERRUPT_MESSAGE:
+                this.interruptMessage = dcpu.getRegisterValue(Register.B);
+                break;
+        }
+        return 0;
+    }
+
+    @Override
+    public void onScheduledCycle(DCPU dcpu, long cycles) {
+    }
+
+    @Override
+    public void onReset(DCPU dcpu) {
+        buffer.clear();
+        this.interruptMessage = 0;
+    }
+
+    /**
+     * only the interrupt message is saved - the typed and pressed
+     * keys belong to the host
+     *
+     * @return
+     */
+    @Override
+    public Object saveState() {
+        return interruptMessage;
+    }
+
+    @Override
+    public void restoreState(DCPU dcpu, Object state) {
+        this.interruptMessage = (Integer) state;
+    }
+
+    /**
+     * adds the key to the keyboard buffer. Must only be called
+     * by the thread feeding this keyboard.
+     *
+     * @param key the key code
+     * @return false if the keyboard buffer is full
+     */
+    public boolean keyTyped(int key) {
+        final boolean added = buffer.offer(key & 0xFF);
+        if (!batchingInterrupts || (added && buffer.size() <= 1)) {
+            raiseInterrupt();
+        }
+        return added;
+    }
+
+    /**
+     * must only be called by the thread feeding this keyboard
+     *
+     * @param key the key code
+     */
+    public void keyPressed(int key) {
+        final int index = (key & 0xFF) >> 6;
+        pressedKeys.lazySet(index, pressedKeys.get(index) | (1L << key));
+        raiseInterrupt();
+    }
+
+    /**
+     * must only be called by the thread feeding this keyboard
+     *
+     * @param key the key code
+     */
+    public void keyReleased(int key) {
+        final int index = (key & 0xFF) >> 6;
+        pressedKeys.lazySet(index, pressedKeys.get(index) & ~(1L << key));
+        raiseInterrupt();
+    }
+
+    /**
+     * types the given text (\n is typed as return, \b as backspace). Every
+     * key raises an interrupt, so a long text can overflow the interrupt
+     * queue of a program that handles the interrupts slower than they
+     * are raised (see {@link #setBatchingInterrupts(boolean)}). Must only
+     * be called by the thread feeding this keyboard.
+     *
+     * @param text
+     * @return the amount of keys that fit into the keyboard buffer
+     */
+    public int type(String text) {
+        int typed = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            final int key = toKey(text.charAt(i));
+            if (key != 0 && buffer.offer(key)) {
+                typed++;
+            }
+        }
+        if (!batchingInterrupts) {
+            for (int i = 0; i < typed; ++i) {
+                raiseInterrupt();
+            }
+        } else
+            if (typed > 0 && buffer.size() <= typed) {
+                raiseInterrupt();
+            }
+        return typed;
+    }
+
+    /**
+     * if set to true typed keys only raise an interrupt if the keyboard
+     * buffer was empty before, so replaying a lot of scripted input can't
+     * overflow the interrupt queue. This deviates from the specification:
+     * the interrupt handler has to read keys until it gets 0, a handler
+     * reading one key per interrupt leaves keys in the buffer. Pressed and
+     * released keys still raise an interrupt each. Disabled by default.
+     *
+     * @param batchingInterrupts
+     */
+    public void setBatchingInterrupts(boolean batchingInterrupts) {
+        this.batchingInterrupts = batchingInterrupts;
+    }
+
+    public boolean isBatchingInterrupts() {
+        return batchingInterrupts;
+    }
+
+    public boolean isPressed(int key) {
+        return (pressedKeys.get((key & 0xFF) >> 6) & (1L << key)) != 0;
+    }
+
+    /**
+     * returns a listener feeding this keyboard with the key events of
+     * a Swing component. The events are dispatched on the event dispatch
+     * thread, which makes it the thread feeding this keyboard.
+     *
+     * @return
+     */
+    public KeyListener createKeyListener() {
+        return new KeyAdapter() {
+
+            @Override
+            public void keyTyped(KeyEvent e) {
+                final int key = toKey(e.getKeyChar());
+                if (key != 0) {
+                    GenericKeyboard.this.keyTyped(key);
+                }
+            }
+
+            @Override
+            public void keyPressed(KeyEvent e) {
+                final int key = toKey(e);
+                if (key != 0) {
+                    GenericKeyboard.this.keyPressed(key);
+                }
+            }
+
+            @Override
+            public void keyReleased(KeyEvent e) {
+                final int key = toKey(e);
+                if (key != 0) {
+                    GenericKeyboard.this.keyReleased(key);
+                }
+            }
+
+        };
+    }
+
+    private void raiseInterrupt() {
+        final DCPU target = this.dcpu;
+        if (interruptMessage != 0 && target != null) {
+            target.interrupt(interruptMessage);
+        }
+    }
+
+    private static int toKey(char c) {
+        switch (c) {
+            case '\n':
+                return KEY_RETURN;
+            case '\b':
+                return KEY_BACKSPACE;
+            default:
+                return c >= 0x20 && c < 0x7f ? c : 0;
+        }
+    }
+
+    private static int toKey(KeyEvent e) {
+        switch (e.getKeyCode()) {
+            case KeyEvent.VK_BACK_SPACE:
+                return KEY_BACKSPACE;
+            case KeyEvent.VK_ENTER:
+                return KEY_RETURN;
+            case KeyEvent.VK_INSERT:
+                return KEY_INSERT;
+            case KeyEvent.VK_DELETE:
+                return KEY_DELETE;
+            case KeyEvent.VK_UP:
+                return KEY_ARROW_UP;
+            case KeyEvent.VK_DOWN:
+                return KEY_ARROW_DOWN;
+            case KeyEvent.VK_LEFT:
+                return KEY_ARROW_LEFT;
+            case KeyEvent.VK_RIGHT:
+                return KEY_ARROW_RIGHT;
+            case KeyEvent.VK_SHIFT:
+                return KEY_SHIFT;
+            case KeyEvent.VK_CONTROL:
+                return KEY_CONTROL;
+            default:
+                return toKey(e.getKeyChar());
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter.devices;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded ring of typed keys with exactly one producer (the thread
+ * feeding the keyboard) and one consumer (the thread executing the DCPU).
+ * Both sides only publish their own index with a volatile write, no
+ * locks or compare and set are needed. The volatile writes let the
+ * producer tell reliably whether the consumer took all older keys (see
+ * {@link #size()}).
+ *
+ * @author Florian Frankenberger
+ */
+final class KeyBuffer {
+
+    static final int EMPTY = 0;
+
+    private final int[] keys;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    //only accessed by the producer
+    private long cachedHead = 0;
+
+    KeyBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2");
+        }
+        this.keys = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * appends the key. Must only be called by the producer.
+     *
+     * @param key
+     * @return false if the buffer is full
+     */
+    boolean offer(int key) {
+        final long position = tail.get();
+        if (position - cachedHead >= keys.length) {
+            cachedHead = head.get();
+            if (position - cachedHead >= keys.length) {
+                return false;
+            }
+        }
+        keys[(int) position & mask] = key;
+        tail.set(position + 1);
+        return true;
+    }
+
+    /**
+     * returns the number of keys the consumer did not take yet. Must only
+     * be called by the producer. If it is not larger than the number of
+     * keys just offered, the consumer took all older keys and might not
+     * look at the buffer again without being notified.
+     *
+     * @return
+     */
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * removes the oldest key. Must only be called by the consumer.
+     *
+     * @return the key or {@link #EMPTY}
+     */
+    int poll() {
+        final long position = head.get();
+        if (position == tail.get()) {
+            return EMPTY;
+        }
+        final int key = keys[(int) position & mask];
+        head.set(position + 1);
+        return key;
+    }
+
+    /**
+     * drops all keys. Must only be called by the consumer.
+     */
+    void clear() {
+        head.set(tail.get());
+    }
+
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter.devices;
+
+import de.darkblue.dcpu.interpreter.DCPU;
+import de.darkblue.dcpu.interpreter.Device;
+import de.darkblue.dcpu.interpreter.RamWatch;
+import de.darkblue.dcpu.interpreter.Register;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+/**
+ * A headless LEM1802 monitor. The screen is rendered into an int[]
+ * framebuffer (ARGB, 128x96 pixels surrounded by the border) 60 times per
+ * emulated second. Only the cells that were written since the last frame
+ * are rendered again - the writes to the mapped video ram, font and palette
+ * are recorded with {@link RamWatch}es. Frames can be written as PNG without
+ * a display, e.g. for tests.
+ *
+ * @author Florian Frankenberger
+ */
+public class LEM1802 implements Device {
+
+    public static final int WIDTH = 128;
+    public static final int HEIGHT = 96;
+    public static final int COLUMNS = 32;
+    public static final int ROWS = 12;
+    public static final int BORDER = 4;
+    public static final int FRAME_WIDTH = WIDTH + 2 * BORDER;
+    public static final int FRAME_HEIGHT = HEIGHT + 2 * BORDER;
+
+    private static final int HARDWARE_ID = 0x7349f615;
+    private static final int VERSION = 0x1802;
+    private static final int MANUFACTURER = 0x1c6c8b36; //NYA_ELEKTRISKA
+
+    private static final int MEM_MAP_SCREEN = 0;
+    private static final int MEM_MAP_FONT = 1;
+    private static final int MEM_MAP_PALETTE = 2;
+    private static final int SET_BORDER_COLOR = 3;
+    private static final int MEM_DUMP_FONT = 4;
+    private static final int MEM_DUMP_PALETTE = 5;
+
+    private static final int CELLS = COLUMNS * ROWS;
+    private static final int CELL_WIDTH = 4;
+    private static final int CELL_HEIGHT = 8;
+    private static final int FRAMES_PER_SECOND = 60;
+    private static final int FRAMES_PER_BLINK = 30;
+
+    private static final char[] DEFAULT_FONT = {
+        0xb79e, 0x388e, 0x722c, 0x75f4, 0x19bb, 0x7f8f, 0x85f9, 0xb158,
+        0x242e, 0x2400, 0x082a, 0x0800, 0x0008, 0x0000, 0x0808, 0x0808,
+        0x00ff, 0x0000, 0x00f8, 0x0808, 0x08f8, 0x0000, 0x080f, 0x0808,
+        0x000f, 0x0808, 0x00ff, 0x0808, 0x08f8, 0x0808, 0x08ff, 0x0000,
+        0x080f, 0x0808, 0x08ff, 0x0808, 0x6633, 0x99cc, 0x9933, 0x66cc,
+        0xfef8, 0xe080, 0x7f1f, 0x0701, 0x0107, 0x1f7f, 0x80e0, 0xf8fe,
+        0x5500, 0xaa00, 0x55aa, 0x55aa, 0xffaa, 0xff55, 0x0f0f, 0x0f0f,
+        0xf0f0, 0xf0f0, 0x0000, 0xffff, 0xffff, 0x0000, 0xffff, 0xffff,
+        0x0000, 0x0000, 0x005f, 0x0000, 0x0300, 0x0300, 0x3e14, 0x3e00,
+        0x266b, 0x3200, 0x611c, 0x4300, 0x3629, 0x7650, 0x0002, 0x0100,
+        0x1c22, 0x4100, 0x4122, 0x1c00, 0x2a1c, 0x2a00, 0x083e, 0x0800,
+        0x4020, 0x0000, 0x0808, 0x0800, 0x0040, 0x0000, 0x601c, 0x0300,
+        0x3e41, 0x3e00, 0x427f, 0x4000, 0x6259, 0x4600, 0x2249, 0x3600,
+        0x0f08, 0x7f00, 0x2745, 0x3900, 0x3e49, 0x3200, 0x6119, 0x0700,
+        0x3649, 0x3600, 0x2649, 0x3e00, 0x0024, 0x0000, 0x4024, 0x0000,
+        0x0814, 0x2241, 0x1414, 0x1400, 0x4122, 0x1408, 0x0259, 0x0600,
+        0x3e59, 0x5e00, 0x7e09, 0x7e00, 0x7f49, 0x3600, 0x3e41, 0x2200,
+        0x7f41, 0x3e00, 0x7f49, 0x4100, 0x7f09, 0x0100, 0x3e41, 0x7a00,
+        0x7f08, 0x7f00, 0x417f, 0x4100, 0x2040, 0x3f00, 0x7f08, 0x7700,
+        0x7f40, 0x4000, 0x7f06, 0x7f00, 0x7f01, 0x7e00, 0x3e41, 0x3e00,
+        0x7f09, 0x0600, 0x3e41, 0xbe00, 0x7f09, 0x7600, 0x2649, 0x3200,
+        0x017f, 0x0100, 0x3f40, 0x3f00, 0x1f60, 0x1f00, 0x7f30, 0x7f00,
+        0x7708, 0x7700, 0x0778, 0x0700, 0x7149, 0x4700, 0x007f, 0x4100,
+        0x031c, 0x6000, 0x0041, 0x7f00, 0x0201, 0x0200, 0x8080, 0x8000,
+        0x0001, 0x0200, 0x2454, 0x7800, 0x7f44, 0x3800, 0x3844, 0x2800,
+        0x3844, 0x7f00, 0x3854, 0x5800, 0x087e, 0x0900, 0x4854, 0x3c00,
+        0x7f04, 0x7800, 0x447d, 0x4000, 0x2040, 0x3d00, 0x7f10, 0x6c00,
+        0x417f, 0x4000, 0x7c18, 0x7c00, 0x7c04, 0x7800, 0x3844, 0x3800,
+        0x7c14, 0x0800, 0x0814, 0x7c00, 0x7c04, 0x0800, 0x4854, 0x2400,
+        0x043e, 0x4400, 0x3c40, 0x7c00, 0x1c60, 0x1c00, 0x7c30, 0x7c00,
+        0x6c10, 0x6c00, 0x4c50, 0x3c00, 0x6454, 0x4c00, 0x0836, 0x4100,
+        0x0077, 0x0000, 0x4136, 0x0800, 0x0201, 0x0201, 0x704c, 0x7000
+    };
+
+    private static final char[] DEFAULT_PALETTE = {
+        0x000, 0x00a, 0x0a0, 0x0aa, 0xa00, 0xa0a, 0xa50, 0xaaa,
+        0x555, 0x55f, 0x5f5, 0x5ff, 0xf55, 0xf5f, 0xff5, 0xfff
+    };
+
+    private static final Logger LOGGER = Logger.getLogger(LEM1802.class.getName());
+
+    private final int[] framebuffer = new int[FRAME_WIDTH * FRAME_HEIGHT];
+    private final int[] colors = new int[16];
+    private final BitSet blinkingCells = new BitSet(CELLS);
+
+    private DCPU dcpu;
+    private int screenAddress = 0;
+    private int fontAddress = 0;
+    private int paletteAddress = 0;
+    private int borderColor = 0;
+    private RamWatch screenWatch;
+    private RamWatch fontWatch;
+    private RamWatch paletteWatch;
+    private boolean redrawAll = true;
+    private boolean redrawBorder = true;
+    private boolean blinkVisible = true;
+    private long frames = 0;
+    private volatile File frameDumpDirectory = null;
+    private ExecutorService frameDumpExecutor = null;
+
+    private static final class State {
+
+        private final int screenAddress;
+        private final int fontAddress;
+        private final int paletteAddress;
+        private final int borderColor;
+        private final boolean blinkVisible;
+        private final long frames;
+
+        private State(int screenAddress, int fontAddress, int paletteAddress, int borderColor,
+                boolean blinkVisible, long frames) {
+            this.screenAddress = screenAddress;
+            this.fontAddress = fontAddress;
+            this.paletteAddress = paletteAddress;
+            this.borderColor = borderColor;
+            this.blinkVisible = blinkVisible;
+            this.frames = frames;
+        }
+
+    }
+
+    @Override
+    public int getHardwareId() {
+        return HARDWARE_ID;
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public int getManufacturer() {
+        return MANUFACTURER;
+    }
+
+    @Override
+    public void onAttach(DCPU dcpu) {
+        this.dcpu = dcpu;
+    }
+
+    @Override
+    public int onInterrupt(DCPU dcpu) {
+        final int b = dcpu.getRegisterValue(Register.B);
+        switch (dcpu.getRegisterValue(Register.A)) {
+            case MEM_MAP_SCREEN:
+                mapScreen(b);
+                return 0;
+            case MEM_MAP_FONT:
+                mapFont(b);
+                return 0;
+            case MEM_MAP_PALETTE:
+                mapPalette(b);
+                return 0;
+            case SET_BORDER_COLOR:
+                setBorderColor(b);
+                return 0;
+            case MEM_DUMP_FONT:
+                for (int i = 0; i < DEFAULT_FONT.length; ++i) {
+                    dcpu.setRamValue(b + i, DEFAULT_FONT[i]);
+                }
+                return DEFAULT_FONT.length;
+            case MEM_DUMP_PALETTE:
+                for (int i = 0; i < DEFAULT_PALETTE.length; ++i) {
+                    dcpu.setRamValue(b + i, DEFAULT_PALETTE[i]);
+                }
+                return DEFAULT_PALETTE.length;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public void onScheduledCycle(DCPU dcpu, long cycles) {
+        if (++frames % FRAMES_PER_BLINK == 0) {
+            this.blinkVisible = !this.blinkVisible;
+            markBlinkingCells();
+        }
+
+        final File directory = this.frameDumpDirectory;
+        if (render() && directory != null) {
+            dumpFrame(new File(directory, String.format("frame-%06d.png", frames)));
+        }
+
+        dcpu.schedule(this, getFrameCycles());
+    }
+
+    @Override
+    public void onReset(DCPU dcpu) {
+        mapScreen(0);
+        dcpu.unwatchRam(fontWatch);
+        dcpu.unwatchRam(paletteWatch);
+        this.fontWatch = null;
+        this.paletteWatch = null;
+        this.fontAddress = 0;
+        this.paletteAddress = 0;
+        setBorderColor(0);
+        this.blinkVisible = true;
+        this.frames = 0;
+    }
+
+    @Override
+    public Object saveState() {
+        return new State(screenAddress, fontAddress, paletteAddress, borderColor, blinkVisible, frames);
+    }
+
+    @Override
+    public void restoreState(DCPU dcpu, Object state) {
+        final State saved = (State) state;
+        mapScreen(saved.screenAddress);
+        mapFont(saved.fontAddress);
+        mapPalette(saved.paletteAddress);
+        setBorderColor(saved.borderColor);
+        this.blinkVisible = saved.blinkVisible;
+        this.frames = saved.frames;
+        this.redrawAll = true;
+    }
+
+    /**
+     * if set, every frame that differs from the previous one is written
+     * as PNG to the given directory (frame-000001.png ...). The files are
+     * written by a background thread, so the emulation does not wait for
+     * the disk.
+     *
+     * @param frameDumpDirectory the directory or null to disable dumping
+     */
+    public synchronized void setFrameDumpDirectory(File frameDumpDirectory) {
+        this.frameDumpDirectory = frameDumpDirectory;
+        if (frameDumpDirectory == null && frameDumpExecutor != null) {
+            //pending frames are still written
+            frameDumpExecutor.shutdown();
+            frameDumpExecutor = null;
+        }
+    }
+
+    public int getScreenAddress() {
+        return screenAddress;
+    }
+
+    /**
+     * returns the border color as RGB
+     *
+     * @return
+     */
+    public synchronized int getBorderColor() {
+        updateColors();
+        return colors[borderColor] & 0xFFFFFF;
+    }
+
+    /**
+     * renders the cells that changed since the last frame. Is called
+     * 60 times per emulated second while a screen is mapped but can be
+     * called directly when the emulation does not run (e.g. after
+     * {@link DCPU#run(long)}).
+     *
+     * @return true if the frame changed
+     */
+    public synchronized boolean render() {
+        if (screenWatch == null) {
+            return false;
+        }
+
+        final boolean colorsChanged = paletteWatch != null && paletteWatch.isDirty();
+        final boolean fontChanged = fontWatch != null && fontWatch.isDirty();
+        boolean changed = false;
+        if (redrawAll || colorsChanged || fontChanged) {
+            updateColors();
+            renderBorder();
+            for (int cell = 0; cell < CELLS; ++cell) {
+                renderCell(cell);
+            }
+            changed = true;
+        } else {
+            if (redrawBorder) {
+                renderBorder();
+                changed = true;
+            }
+            for (int cell = screenWatch.nextDirty(0); cell >= 0; cell = screenWatch.nextDirty(cell + 1)) {
+                renderCell(cell);
+                changed = true;
+            }
+            for (int cell = blinkingCells.nextSetBit(0); cell >= 0; cell = blinkingCells.nextSetBit(cell + 1)) {
+                renderCell(cell);
+                changed = true;
+            }
+        }
+
+        screenWatch.clear();
+        blinkingCells.clear();
+        if (fontWatch != null) {
+            fontWatch.clear();
+        }
+        if (paletteWatch != null) {
+            paletteWatch.clear();
+        }
+        this.redrawAll = false;
+        this.redrawBorder = false;
+        return changed;
+    }
+
+    /**
+     * copies the current frame (ARGB, row by row, including the border)
+     * to the given array
+     *
+     * @param pixels an array of at least FRAME_WIDTH * FRAME_HEIGHT ints
+     */
+    public synchronized void getFrame(int[] pixels) {
+        System.arraycopy(framebuffer, 0, pixels, 0, framebuffer.length);
+    }
+
+    public synchronized BufferedImage toImage() {
+        return toImage(framebuffer);
+    }
+
+    public void writePng(OutputStream out) throws IOException {
+        ImageIO.write(toImage(), "png", out);
+    }
+
+    public void writePng(File file) throws IOException {
+        ImageIO.write(toImage(), "png", file);
+    }
+
+    private static BufferedImage toImage(int[] pixels) {
+        final BufferedImage image = new BufferedImage(FRAME_WIDTH, FRAME_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, FRAME_WIDTH, FRAME_HEIGHT, pixels, 0, FRAME_WIDTH);
+        return image;
+    }
+
+    /**
+     * hands a copy of the current frame to the dump thread
+     */
+    private synchronized void dumpFrame(final File file) {
+        if (frameDumpExecutor == null) {
+            frameDumpExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "LEM1802 frame dump");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+
+            });
+        }
+
+        final int[] pixels = framebuffer.clone();
+        frameDumpExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    ImageIO.write(toImage(pixels), "png", file);
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Could not dump frame " + file, e);
+                }
+            }
+
+        });
+    }
+
+    private synchronized void mapScreen(int address) {
+        dcpu.unwatchRam(screenWatch);
+        this.screenAddress = address;
+        if (address != 0) {
+            if (screenWatch == null) {
+                dcpu.schedule(this, getFrameCycles());
+            }
+            this.screenWatch = dcpu.watchRam(address, CELLS);
+            this.redrawAll = true;
+        } else {
+            dcpu.cancelSchedule(this);
+            this.screenWatch = null;
+            Arrays.fill(framebuffer, 0);
+        }
+    }
+
+    private synchronized void setBorderColor(int color) {
+        if (this.borderColor != (color & 0xF)) {
+            this.borderColor = color & 0xF;
+            this.redrawBorder = true;
+        }
+    }
+
+    private void mapFont(int address) {
+        dcpu.unwatchRam(fontWatch);
+        this.fontAddress = address;
+        this.fontWatch = address != 0 ? dcpu.watchRam(address, DEFAULT_FONT.length) : null;
+        this.redrawAll = true;
+    }
+
+    private void mapPalette(int address) {
+        dcpu.unwatchRam(paletteWatch);
+        this.paletteAddress = address;
+        this.paletteWatch = address != 0 ? dcpu.watchRam(address, DEFAULT_PALETTE.length) : null;
+        this.redrawAll = true;
+    }
+
+    private long getFrameCycles() {
+        return Math.max(1L, dcpu.getSimulationSpeed() / FRAMES_PER_SECOND);
+    }
+
+    /**
+     * marks the cells with the blink bit set, so they get rendered again
+     */
+    private synchronized void markBlinkingCells() {
+        if (screenWatch == null) {
+            return;
+        }
+        for (int cell = 0; cell < CELLS; ++cell) {
+            if ((dcpu.getRamValue(screenAddress + cell) & 0x80) != 0) {
+                blinkingCells.set(cell);
+            }
+        }
+    }
+
+    private void updateColors() {
+        for (int i = 0; i < colors.length; ++i) {
+            final int color = paletteAddress != 0 ? dcpu.getRamValue(paletteAddress + i) : DEFAULT_PALETTE[i];
+            final int red = ((color >> 8) & 0xF) * 0x11;
+            final int green = ((color >> 4) & 0xF) * 0x11;
+            final int blue = (color & 0xF) * 0x11;
+            colors[i] = 0xFF000000 | (red << 16) | (green << 8) | blue;
+        }
+    }
+
+    private int getFontWord(int index) {
+        return fontAddress != 0 ? dcpu.getRamValue(fontAddress + index) : DEFAULT_FONT[index];
+    }
+
+    private void renderBorder() {
+        final int color = colors[borderColor];
+        Arrays.fill(framebuffer, 0, BORDER * FRAME_WIDTH, color);
+        for (int y = BORDER; y < BORDER + HEIGHT; ++y) {
+            Arrays.fill(framebuffer, y * FRAME_WIDTH, y * FRAME_WIDTH + BORDER, color);
+            Arrays.fill(framebuffer, y * FRAME_WIDTH + BORDER + WIDTH, (y + 1) * FRAME_WIDTH, color);
+        }
+        Arrays.fill(framebuffer, (BORDER + HEIGHT) * FRAME_WIDTH, framebuffer.length, color);
+    }
+
+    private void renderCell(int cell) {
+        final int word = dcpu.getRamValue(screenAddress + cell);
+        final int character = word & 0x7F;
+        final int background = colors[(word >> 8) & 0xF];
+        final int foreground = (word & 0x80) != 0 && !blinkVisible
+                ? background
+                : colors[(word >> 12) & 0xF];
+
+        //every column of a glyph is a byte (top row in the lowest bit)
+        final int glyph = (getFontWord(character * 2) << 16) | getFontWord(character * 2 + 1);
+        final int left = BORDER + (cell % COLUMNS) * CELL_WIDTH;
+        final int top = BORDER + (cell / COLUMNS) * CELL_HEIGHT;
+        for (int column = 0; column < CELL_WIDTH; ++column) {
+            final int bits = glyph >>> (24 - column * 8);
+            int pixel = top * FRAME_WIDTH + left + column;
+            for (int row = 0; row < CELL_HEIGHT; ++row) {
+                framebuffer[pixel] = (bits & (1 << row)) != 0 ? foreground : background;
+                pixel += FRAME_WIDTH;
+            }
+        }
+    }
+
+}
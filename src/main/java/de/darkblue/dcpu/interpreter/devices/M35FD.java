@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter.devices;
+
+import de.darkblue.dcpu.interpreter.DCPU;
+import de.darkblue.dcpu.interpreter.Device;
+import de.darkblue.dcpu.interpreter.Register;
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Mackapar M35FD floppy drive. Disk images are files of 1440 sectors
+ * with 512 big endian words each that are mapped into memory, so a sector
+ * is copied between the image and the ram in one bulk copy. Seeking and
+ * transferring take the emulated cycles of the real drive (2.4 ms per
+ * track, 30700 words per second) - the data is copied when the operation
+ * completes.
+ *
+ * @author Florian Frankenberger
+ */
+public class M35FD implements Device {
+
+    public static final int SECTOR_SIZE = 512;
+    public static final int SECTORS = 1440;
+
+    public static final int STATE_NO_MEDIA = 0x0000;
+    public static final int STATE_READY = 0x0001;
+    public static final int STATE_READY_WP = 0x0002;
+    public static final int STATE_BUSY = 0x0003;
+
+    public static final int ERROR_NONE = 0x0000;
+    public static final int ERROR_BUSY = 0x0001;
+    public static final int ERROR_NO_MEDIA = 0x0002;
+    public static final int ERROR_PROTECTED = 0x0003;
+    public static final int ERROR_EJECT = 0x0004;
+    public static final int ERROR_BAD_SECTOR = 0x0005;
+    public static final int ERROR_BROKEN = 0xffff;
+
+    private static final int HARDWARE_ID = 0x4fd524c5;
+    private static final int VERSION = 0x000b;
+    private static final int MANUFACTURER = 0x1eb37e91; //MACKAPAR
+
+    private static final int POLL = 0;
+    private static final int SET_INTERRUPT = 1;
+    private static final int READ_SECTOR = 2;
+    private static final int WRITE_SECTOR = 3;
+
+    private static final int SECTORS_PER_TRACK = 18;
+    private static final long SEEK_NANOS_PER_TRACK = 2_400_000L;
+    private static final long WORDS_PER_SECOND = 30_700L;
+    private static final long DISK_BYTES = (long) SECTORS * SECTOR_SIZE * 2;
+
+    private static final CharBuffer EMPTY_SECTOR = CharBuffer.wrap(new char[SECTOR_SIZE]).asReadOnlyBuffer();
+
+    private DCPU dcpu;
+    private FileChannel channel;
+    private MappedByteBuffer image;
+    private CharBuffer disk;
+    private int state = STATE_NO_MEDIA;
+    private int error = ERROR_NONE;
+    private int interruptMessage = 0;
+    private int track = 0;
+
+    private boolean writing;
+    private int sector;
+    private int address;
+
+    private static final class State {
+
+        private final int state;
+        private final int error;
+        private final int interruptMessage;
+        private final int track;
+        private final boolean writing;
+        private final int sector;
+        private final int address;
+
+        private State(int state, int error, int interruptMessage, int track, boolean writing, int sector, int address) {
+            this.state = state;
+            this.error = error;
+            this.interruptMessage = interruptMessage;
+            this.track = track;
+            this.writing = writing;
+            this.sector = sector;
+            this.address = address;
+        }
+
+    }
+
+    @Override
+    public int getHardwareId() {
+        return HARDWARE_ID;
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public int getManufacturer() {
+        return MANUFACTURER;
+    }
+
+    @Override
+    public void onAttach(DCPU dcpu) {
+        this.dcpu = dcpu;
+    }
+
+    /**
+     * inserts the disk image. A writable image is created (or grown) to
+     * the size of a disk, a write protected image may be shorter - the
+     * missing sectors read as zeros. Can be called from any thread.
+     *
+     * @param file the disk image
+     * @param writeProtected true if the program must not write to the disk
+     * @throws IOException
+     */
+    public synchronized void insert(File file, boolean writeProtected) throws IOException {
+        eject();
+
+        if (writeProtected) {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.image = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), DISK_BYTES));
+        } else {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            this.image = channel.map(FileChannel.MapMode.READ_WRITE, 0, DISK_BYTES);
+        }
+        this.disk = image.asCharBuffer();
+        this.track = 0;
+        setState(writeProtected ? STATE_READY_WP : STATE_READY);
+    }
+
+    /**
+     * ejects the disk. An operation in progress fails with ERROR_EJECT.
+     * Can be called from any thread.
+     *
+     * @throws IOException
+     */
+    public synchronized void eject() throws IOException {
+        if (channel == null) {
+            return;
+        }
+
+        if (state == STATE_BUSY) {
+            setError(ERROR_EJECT);
+        }
+        if (!image.isReadOnly()) {
+            image.force();
+        }
+        this.disk = null;
+        this.image = null;
+        try {
+            channel.close();
+        } finally {
+            this.channel = null;
+            setState(STATE_NO_MEDIA);
+        }
+    }
+
+    public synchronized int getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized int onInterrupt(DCPU dcpu) {
+        switch (dcpu.getRegisterValue(Register.A)) {
+            case POLL:
+                dcpu.setRegisterValue(Register.B, state);
+                dcpu.setRegisterValue(Register.C, error);
+                this.error = ERROR_NONE;
+                break;
+            case SET_INTERRUPT:
+                this.interruptMessage = dcpu.getRegisterValue(Register.X);
+                break;
+            case READ_SECTOR:
+                dcpu.setRegisterValue(Register.B, startOperation(false) ? 1 : 0);
+                break;
+            case WRITE_SECTOR:
+                dcpu.setRegisterValue(Register.B, startOperation(true) ? 1 : 0);
+                break;
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized void onScheduledCycle(DCPU dcpu, long cycles) {
+        if (state != STATE_BUSY) {
+            //the disk was ejected in the meantime
+            return;
+        }
+
+        final int offset = sector * SECTOR_SIZE;
+        if (writing) {
+            disk.clear();
+            disk.position(offset);
+            dcpu.storeRam(address, disk, SECTOR_SIZE);
+        } else {
+            final int available = Math.max(0, Math.min(SECTOR_SIZE, disk.capacity() - offset));
+            disk.clear();
+            disk.position(Math.min(offset, disk.capacity()));
+            dcpu.loadRam(address, disk, available);
+            if (available < SECTOR_SIZE) {
+                dcpu.loadRam(address + available, EMPTY_SECTOR.duplicate(), SECTOR_SIZE - available);
+            }
+        }
+
+        this.track = sector / SECTORS_PER_TRACK;
+        setState(image.isReadOnly() ? STATE_READY_WP : STATE_READY);
+    }
+
+    @Override
+    public synchronized void onReset(DCPU dcpu) {
+        this.interruptMessage = 0;
+        this.error = ERROR_NONE;
+        this.track = 0;
+        if (state == STATE_BUSY) {
+            this.state = image.isReadOnly() ? STATE_READY_WP : STATE_READY;
+        }
+    }
+
+    /**
+     * the inserted disk and its content are not part of the state
+     *
+     * @return
+     */
+    @Override
+    public synchronized Object saveState() {
+        return new State(state, error, interruptMessage, track, writing, sector, address);
+    }
+
+    /**
+     * restores the state as far as the currently inserted disk allows
+     * (e.g. no operation is in progress if no disk is inserted)
+     *
+     * @param dcpu
+     * @param state
+     */
+    @Override
+    public synchronized void restoreState(DCPU dcpu, Object state) {
+        final State saved = (State) state;
+        this.error = saved.error;
+        this.interruptMessage = saved.interruptMessage;
+        this.track = saved.track;
+        this.writing = saved.writing;
+        this.sector = saved.sector;
+        this.address = saved.address;
+        if (channel == null) {
+            this.state = STATE_NO_MEDIA;
+        } else
+            if (saved.state == STATE_BUSY && !(writing && image.isReadOnly())) {
+                this.state = STATE_BUSY;
+            } else {
+                this.state = image.isReadOnly() ? STATE_READY_WP : STATE_READY;
+            }
+    }
+
+    private boolean startOperation(boolean write) {
+        final int requestedSector = dcpu.getRegisterValue(Register.X);
+        if (state == STATE_NO_MEDIA) {
+            setError(ERROR_NO_MEDIA);
+            return false;
+        }
+        if (state == STATE_BUSY) {
+            setError(ERROR_BUSY);
+            return false;
+        }
+        if (write && state == STATE_READY_WP) {
+            setError(ERROR_PROTECTED);
+            return false;
+        }
+        if (requestedSector >= SECTORS) {
+            setError(ERROR_BAD_SECTOR);
+            return false;
+        }
+
+        this.writing = write;
+        this.sector = requestedSector;
+        this.address = dcpu.getRegisterValue(Register.Y);
+        setState(STATE_BUSY);
+
+        final long tracks = Math.abs(requestedSector / SECTORS_PER_TRACK - track);
+        final long hz = dcpu.getSimulationSpeed();
+        final long seekCycles = tracks * SEEK_NANOS_PER_TRACK * hz / 1_000_000_000L;
+        final long transferCycles = SECTOR_SIZE * hz / WORDS_PER_SECOND;
+        dcpu.schedule(this, seekCycles + transferCycles);
+        return true;
+    }
+
+    private void setState(int state) {
+        if (this.state != state) {
+            this.state = state;
+            raiseInterrupt();
+        }
+    }
+
+    private void setError(int error) {
+        if (this.error != error) {
+            this.error = error;
+            raiseInterrupt();
+        }
+    }
+
+    private void raiseInterrupt() {
+        if (interruptMessage != 0 && dcpu != null) {
+            dcpu.interrupt(interruptMessage);
+        }
+    }
+
+}
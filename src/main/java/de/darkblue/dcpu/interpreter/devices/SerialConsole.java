@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter.devices;
+
+import de.darkblue.dcpu.interpreter.DCPU;
+import de.darkblue.dcpu.interpreter.Device;
+import de.darkblue.dcpu.interpreter.Register;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A serial console for headless runs. Written characters (the low 8 bits of
+ * each word) are collected in a large buffer that is handed to an output
+ * thread when it is full, when the program requests it or a 60th of an
+ * emulated second after the first pending character. The output thread
+ * writes the buffers to the channel, so the emulation only waits for the
+ * output when all buffers are in use. Input is read by a daemon thread and
+ * handed to the DCPU through a lock-free ring, so a blocking read never
+ * stalls the emulation.
+ * <p/>
+ * This is not a device of the DCPU-16 specification - the hardware id
+ * 0xe0239088 is made up, so programs have to look for it explicitly.
+ * <p/>
+ * Interrupts (register A):
+ * <ul>
+ * <li>0: writes the character in B</li>
+ * <li>1: writes C characters starting at ram address B</li>
+ * <li>2: stores the next input character in C (0 if there is none)</li>
+ * <li>3: flushes the output</li>
+ * <li>4: sets the interrupt message raised on input to B (0 disables it)</li>
+ * </ul>
+ *
+ * @author Florian Frankenberger
+ */
+public class SerialConsole implements Device {
+
+    private static final Logger LOGGER = Logger.getLogger(SerialConsole.class.getName());
+
+    private static final int HARDWARE_ID = 0xe0239088; //made up, not a spec device
+    private static final int VERSION = 1;
+    private static final int MANUFACTURER = 0;
+
+    private static final int WRITE_CHAR = 0;
+    private static final int WRITE_STRING = 1;
+    private static final int READ_CHAR = 2;
+    private static final int FLUSH = 3;
+    private static final int SET_INTERRUPT_MESSAGE = 4;
+
+    private static final int OUTPUT_BUFFER_SIZE = 256 * 1024;
+    private static final int OUTPUT_BUFFERS = 4;
+    private static final int INPUT_BUFFER_SIZE = 4096;
+    private static final int FLUSHES_PER_SECOND = 60;
+    private static final long INPUT_BACKOFF_NANOS = 1_000_000L;
+
+    private final WritableByteChannel output;
+    private final BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(OUTPUT_BUFFERS);
+    private final BlockingQueue<ByteBuffer> filledBuffers = new ArrayBlockingQueue<>(OUTPUT_BUFFERS);
+    private final Object pendingLock = new Object();
+    private int pendingBuffers = 0;
+    private ByteBuffer outputBuffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+    private Thread outputThread;
+    private final CharBuffer stringBuffer = CharBuffer.allocate(0x10000);
+
+    private final InputStream input;
+    private final KeyBuffer inputBuffer = new KeyBuffer(INPUT_BUFFER_SIZE);
+    private Thread inputThread;
+
+    private volatile DCPU dcpu;
+    private volatile int interruptMessage = 0;
+
+    public SerialConsole(OutputStream output) {
+        this(Channels.newChannel(output), null);
+    }
+
+    public SerialConsole(WritableByteChannel output) {
+        this(output, null);
+    }
+
+    /**
+     * @param output the channel the written characters are flushed to
+     * @param input the stream the input is read from (e.g. System.in) or null
+     */
+    public SerialConsole(WritableByteChannel output, InputStream input) {
+        this.output = output;
+        this.input = input;
+        for (int i = 1; i < OUTPUT_BUFFERS; ++i) {
+            freeBuffers.add(ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE));
+        }
+    }
+
+    @Override
+    public int getHardwareId() {
+        return HARDWARE_ID;
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public int getManufacturer() {
+        return MANUFACTURER;
+    }
+
+    @Override
+    public synchronized void onAttach(DCPU dcpu) {
+        this.dcpu = dcpu;
+        if (input != null && inputThread == null) {
+            inputThread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    readInput();
+                }
+
+            }, "SerialConsole input");
+            inputThread.setDaemon(true);
+            inputThread.start();
+        }
+    }
+
+    @Override
+    public synchronized int onInterrupt(DCPU dcpu) {
+        switch (dcpu.getRegisterValue(Register.A)) {
+            case WRITE_CHAR:
+                write(dcpu, dcpu.getRegisterValue(Register.B));
+                break;
+            case WRITE_STRING:
+                writeString(dcpu, dcpu.getRegisterValue(Register.B), dcpu.getRegisterValue(Register.C));
+                break;
+            case READ_CHAR:
+                dcpu.setRegisterValue(Register.C, inputBuffer.poll());
+                break;
+            case FLUSH:
+                handOverOutput();
+                break;
+            case SET_INTERRUPT_MESSAGE:
+                this.interruptMessage = dcpu.getRegisterValue(Register.B);
+                break;
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized void onScheduledCycle(DCPU dcpu, long cycles) {
+        handOverOutput();
+    }
+
+    @Override
+    public synchronized void onReset(DCPU dcpu) {
+        handOverOutput();
+        inputBuffer.clear();
+        this.interruptMessage = 0;
+    }
+
+    /**
+     * only the interrupt message is saved - the output that was
+     * already written and the input belong to the host
+     *
+     * @return
+     */
+    @Override
+    public synchronized Object saveState() {
+        return interruptMessage;
+    }
+
+    @Override
+    public synchronized void restoreState(DCPU dcpu, Object state) {
+        this.interruptMessage = (Integer) state;
+    }
+
+    /**
+     * writes all pending characters to the output and waits until they
+     * are written. Should be called after the DCPU stopped to get the
+     * remaining output.
+     */
+    public void flush() {
+        synchronized (this) {
+            handOverOutput();
+        }
+
+        boolean interrupted = false;
+        synchronized (pendingLock) {
+            while (pendingBuffers > 0) {
+                try {
+                    pendingLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * hands the pending characters to the output thread and continues
+     * with a free buffer. Blocks only if all buffers are still being
+     * written.
+     */
+    private void handOverOutput() {
+        if (outputBuffer.position() == 0) {
+            return;
+        }
+        if (outputThread == null) {
+            outputThread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    writeOutput();
+                }
+
+            }, "SerialConsole output");
+            outputThread.setDaemon(true);
+            outputThread.start();
+        }
+
+        synchronized (pendingLock) {
+            pendingBuffers++;
+        }
+        outputBuffer.flip();
+        filledBuffers.add(outputBuffer);
+
+        boolean interrupted = false;
+        ByteBuffer buffer = null;
+        while (buffer == null) {
+            try {
+                buffer = freeBuffers.take();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        this.outputBuffer = buffer;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * the loop of the output thread - the channel is written without
+     * holding the monitor of the device
+     */
+    private void writeOutput() {
+        while (true) {
+            final ByteBuffer buffer;
+            try {
+                buffer = filledBuffers.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                while (buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not write the console output", e);
+            } finally {
+                buffer.clear();
+                freeBuffers.add(buffer);
+                synchronized (pendingLock) {
+                    if (--pendingBuffers == 0) {
+                        pendingLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    private void write(DCPU dcpu, int value) {
+        if (!outputBuffer.hasRemaining()) {
+            handOverOutput();
+        }
+        if (outputBuffer.position() == 0) {
+            dcpu.schedule(this, dcpu.getSimulationSpeed() / FLUSHES_PER_SECOND);
+        }
+        outputBuffer.put((byte) value);
+    }
+
+    private void writeString(DCPU dcpu, int address, int length) {
+        stringBuffer.clear();
+        dcpu.storeRam(address, stringBuffer, length);
+        stringBuffer.flip();
+        while (stringBuffer.hasRemaining()) {
+            write(dcpu, stringBuffer.get());
+        }
+    }
+
+    private void readInput() {
+        try {
+            int value;
+            while ((value = input.read()) != -1) {
+                if (value == 0) {
+                    continue;
+                }
+                while (!inputBuffer.offer(value)) {
+                    LockSupport.parkNanos(INPUT_BACKOFF_NANOS);
+                }
+                final DCPU target = this.dcpu;
+                if (interruptMessage != 0 && target != null) {
+                    target.interrupt(interruptMessage);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not read the console input", e);
+        }
+    }
+
+}
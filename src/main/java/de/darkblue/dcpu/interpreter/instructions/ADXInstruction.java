@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter.instructions;
+
+import de.darkblue.dcpu.interpreter.Alu;
+import de.darkblue.dcpu.interpreter.DCPU;
+import de.darkblue.dcpu.interpreter.Register;
+import de.darkblue.dcpu.parser.instructions.Operation;
+
+/**
+ * ADX Instruction
+ * @author Florian Frankenberger
+ */
+@InstructionDefinition(operation=Operation.ADX, cycles=3)
+public class ADXInstruction extends Instruction {
+
+    @Override
+    public int execute(DCPU dcpu, int b, int a) {
+        final int result = Alu.adx(dcpu.read(b), dcpu.read(a), dcpu.getRegisterValue(Register.EX));
+        dcpu.write(b, Alu.result(result));
+        dcpu.setRegisterValue(Register.EX, Alu.ex(result));
+        return 0;
+    }
+
+}
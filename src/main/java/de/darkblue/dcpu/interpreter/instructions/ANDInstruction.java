@@ -17,30 +17,20 @@
 
 package de.darkblue.dcpu.interpreter.instructions;
 
-import de.darkblue.dcpu.interpreter.Command;
 import de.darkblue.dcpu.interpreter.DCPU;
 import de.darkblue.dcpu.parser.instructions.Operation;
-import de.darkblue.dcpu.parser.instructions.Word;
 
 /**
  * AND Instruction
  * @author Florian Frankenberger
  */
-@InstructionDefinition(operation=Operation.AND)
+@InstructionDefinition(operation=Operation.AND, cycles=1)
 public class ANDInstruction extends Instruction {
 
     @Override
-    public Command[] execute(final Word... operands) {
-        return new Command[] {
-            new Command() {
-
-                @Override
-                public void execute(DCPU dcpu) {
-                    operands[0].set(operands[0].and(operands[1]));
-                }
-                
-            }
-        };
+    public int execute(DCPU dcpu, int b, int a) {
+        dcpu.write(b, dcpu.read(b) & dcpu.read(a));
+        return 0;
     }
 
 }
@@ -17,35 +17,22 @@
 
 package de.darkblue.dcpu.interpreter.instructions;
 
-import de.darkblue.dcpu.interpreter.Command;
 import de.darkblue.dcpu.interpreter.DCPU;
-import de.darkblue.dcpu.interpreter.NopCommand;
 import de.darkblue.dcpu.parser.instructions.Operation;
-import de.darkblue.dcpu.parser.instructions.Word;
 
 /**
  * IFL Instruction
  * @author Florian Frankenberger
  */
-@InstructionDefinition(operation=Operation.IFL)
+@InstructionDefinition(operation=Operation.IFL, cycles=2)
 public class IFLInstruction extends Instruction {
 
     @Override
-    public Command[] execute(final Word... operands) {
-        return new Command[] {
-            new NopCommand(),
-            new Command() {
-
-                @Override
-                public void execute(DCPU dcpu) {
-                    if (!operands[0].lowerThan(operands[1])) {
-                        dcpu.getPc().inc(); //skip next instruction
-                        dcpu.setSkipNextInstructionIfConditional(); //condition chaining
-                    }
-                }
-                
-            }
-        };
+    public int execute(DCPU dcpu, int b, int a) {
+        if (dcpu.read(b) >= dcpu.read(a)) {
+            return dcpu.skipNextInstruction(); //test failed
+        }
+        return 0;
     }
 
 }
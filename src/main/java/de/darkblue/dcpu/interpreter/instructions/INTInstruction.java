@@ -15,17 +15,22 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-package de.darkblue.dcpu.interpreter;
+package de.darkblue.dcpu.interpreter.instructions;
+
+import de.darkblue.dcpu.interpreter.DCPU;
+import de.darkblue.dcpu.parser.instructions.Operation;
 
 /**
- * The No OPeration (NOP) command
+ * INT Instruction
  * @author Florian Frankenberger
  */
-public class NopCommand extends Command {
+@InstructionDefinition(operation=Operation.INT, cycles=4)
+public class INTInstruction extends Instruction {
 
     @Override
-    public void execute(DCPU dcpu) {
-        //does nothing but uses up one cpu cycle
+    public int execute(DCPU dcpu, int b, int a) {
+        dcpu.interrupt(dcpu.read(a));
+        return 0;
     }
 
 }
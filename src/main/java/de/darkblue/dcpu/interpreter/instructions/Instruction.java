@@ -16,9 +16,8 @@
  */
 package de.darkblue.dcpu.interpreter.instructions;
 
-import de.darkblue.dcpu.interpreter.Command;
+import de.darkblue.dcpu.interpreter.DCPU;
 import de.darkblue.dcpu.parser.instructions.Operation;
-import de.darkblue.dcpu.parser.instructions.Word;
 
 /**
  *
@@ -26,13 +25,19 @@ import de.darkblue.dcpu.parser.instructions.Word;
  */
 public abstract class Instruction {
 
+    private final Operation operation;
+
+    protected Instruction() {
+        this.operation = this.getInstructionDefinition().operation();
+    }
+    
     /**
      * returns the operation associated with this instruction
      * 
      * @return 
      */
     public Operation getOperation() {
-        return this.getInstructionDefinition().operation();
+        return this.operation;
     }
 
     private InstructionDefinition getInstructionDefinition() {
@@ -46,13 +51,16 @@ public abstract class Instruction {
     }
     
     /**
-     * returns a list of commands each command will be executed
-     * by the interpreter and uses one CPU cycle to process
+     * executes this instruction. Instructions are shared by all
+     * emulators, so they must not keep any state on their own.
      * 
-     * @param operands 1 or 2 operands depending on the operation
-     * @return 
+     * @param dcpu the dcpu interpreter
+     * @param b the location of operand b (see {@link DCPU#read(int)}) or -1 if 
+     *          the operation has only one parameter
+     * @param a the location of operand a
+     * @return cpu cycles needed in addition to the base cycles of the instruction
      */
-    public abstract Command[] execute(final Word... operands);
+    public abstract int execute(DCPU dcpu, int b, int a);
     
     @Override
     public String toString() {
@@ -39,5 +39,13 @@ public @interface InstructionDefinition {
      * @return 
      */
     Operation operation();
-    
+
+    /**
+     * base cpu cycles this instruction needs (without
+     * the cycles of its operands)
+     *
+     * @return
+     */
+    int cycles() default 1;
+
 }
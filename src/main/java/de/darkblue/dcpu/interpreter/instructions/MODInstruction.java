@@ -17,33 +17,21 @@
 
 package de.darkblue.dcpu.interpreter.instructions;
 
-import de.darkblue.dcpu.interpreter.Command;
+import de.darkblue.dcpu.interpreter.Alu;
 import de.darkblue.dcpu.interpreter.DCPU;
-import de.darkblue.dcpu.interpreter.NopCommand;
 import de.darkblue.dcpu.parser.instructions.Operation;
-import de.darkblue.dcpu.parser.instructions.Word;
 
 /**
  * MOD Instruction
  * @author Florian Frankenberger
  */
-@InstructionDefinition(operation=Operation.MOD)
+@InstructionDefinition(operation=Operation.MOD, cycles=3)
 public class MODInstruction extends Instruction {
 
     @Override
-    public Command[] execute(final Word... operands) {
-        return new Command[] {
-            new NopCommand(),
-            new NopCommand(),
-            new Command() {
-
-                @Override
-                public void execute(DCPU dcpu) {
-                    operands[0].modLocal(operands[1]);
-                }
-                
-            }
-        };
+    public int execute(DCPU dcpu, int b, int a) {
+        dcpu.write(b, Alu.mod(dcpu.read(b), dcpu.read(a)));
+        return 0;
     }
 
 }
@@ -17,33 +17,24 @@
 
 package de.darkblue.dcpu.interpreter.instructions;
 
-import de.darkblue.dcpu.interpreter.Command;
+import de.darkblue.dcpu.interpreter.Alu;
 import de.darkblue.dcpu.interpreter.DCPU;
-import de.darkblue.dcpu.interpreter.NopCommand;
+import de.darkblue.dcpu.interpreter.Register;
 import de.darkblue.dcpu.parser.instructions.Operation;
-import de.darkblue.dcpu.parser.instructions.Word;
 
 /**
- * ADD Instruction
+ * SUB Instruction
  * @author Florian Frankenberger
  */
-@InstructionDefinition(operation=Operation.SUB)
+@InstructionDefinition(operation=Operation.SUB, cycles=2)
 public class SUBInstruction extends Instruction {
 
     @Override
-    public Command[] execute(final Word... operands) {
-        return new Command[] {
-            new NopCommand(),
-            new Command() {
-
-                @Override
-                public void execute(DCPU dcpu) {
-                    final Word overUnderFlow = operands[0].subtractLocal(operands[1]);
-                    dcpu.getEx().set(overUnderFlow);
-                }
-                
-            }
-        };
+    public int execute(DCPU dcpu, int b, int a) {
+        final int result = Alu.sub(dcpu.read(b), dcpu.read(a));
+        dcpu.write(b, Alu.result(result));
+        dcpu.setRegisterValue(Register.EX, Alu.ex(result));
+        return 0;
     }
 
 }
@@ -17,30 +17,20 @@
 
 package de.darkblue.dcpu.interpreter.instructions;
 
-import de.darkblue.dcpu.interpreter.Command;
 import de.darkblue.dcpu.interpreter.DCPU;
 import de.darkblue.dcpu.parser.instructions.Operation;
-import de.darkblue.dcpu.parser.instructions.Word;
 
 /**
  * SET command
  * @author Florian Frankenberger
  */
-@InstructionDefinition(operation=Operation.SET)
+@InstructionDefinition(operation=Operation.SET, cycles=1)
 public class SetInstruction extends Instruction {
 
     @Override
-    public Command[] execute(final Word... operands) {
-        return new Command[] {
-            new Command() {
-
-                @Override
-                public void execute(DCPU dcpu) {
-                    operands[0].set(operands[1]);
-                }
-                
-            }
-        };
+    public int execute(DCPU dcpu, int b, int a) {
+        dcpu.write(b, dcpu.read(a));
+        return 0;
     }
-    
+
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter.jit;
+
+/**
+ * Defines the classes of compiled blocks. Every compiled block gets its
+ * own loader, so the generated class can be unloaded as soon as the block
+ * is dropped from the block cache.
+ * 
+ * @author Florian Frankenberger
+ */
+final class BlockClassLoader extends ClassLoader {
+
+    BlockClassLoader() {
+        super(CompiledBlock.class.getClassLoader());
+    }
+    
+    Class<?> define(String name, byte[] classFile) {
+        return defineClass(name, classFile, 0, classFile.length);
+    }
+    
+}
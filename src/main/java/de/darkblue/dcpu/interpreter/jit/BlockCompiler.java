@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter.jit;
+
+import de.darkblue.dcpu.interpreter.BasicBlock;
+import de.darkblue.dcpu.interpreter.DecodedInstruction;
+import de.darkblue.dcpu.interpreter.PagedRam;
+import de.darkblue.dcpu.interpreter.Register;
+import de.darkblue.dcpu.interpreter.jit.CodeBuilder.Label;
+import de.darkblue.dcpu.parser.instructions.Operation;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Translates basic blocks to JVM bytecode. The registers are kept in local
+ * variables while the block runs and are only written back when it is left. 
+ * Only the leading run of non conditional instructions with a known
+ * translation is compiled - the rest of the block stays interpreted.
+ * 
+ * @author Florian Frankenberger
+ */
+public final class BlockCompiler {
+    
+    private static final String CLASS_NAME_PREFIX = "de/darkblue/dcpu/interpreter/jit/CompiledBlock$";
+    private static final String COMPILED_BLOCK = "de/darkblue/dcpu/interpreter/jit/CompiledBlock";
+    private static final String DCPU = "de/darkblue/dcpu/interpreter/DCPU";
+    private static final String ALU = "de/darkblue/dcpu/interpreter/Alu";
+    private static final String EXECUTE_DESCRIPTOR = "(L" + DCPU + ";[[C[I)I";
+    
+    private static final Register[] REGISTERS = Register.values();
+    
+    private static final int LOCAL_DCPU = 1;
+    private static final int LOCAL_RAM = 2;
+    private static final int LOCAL_REGISTERS = 3;
+    private static final int LOCAL_FIRST_REGISTER = 4;
+    private static final int LOCAL_EXECUTED = LOCAL_FIRST_REGISTER + REGISTERS.length;
+    private static final int LOCAL_ADDRESS_A = LOCAL_EXECUTED + 1;
+    private static final int LOCAL_ADDRESS_B = LOCAL_EXECUTED + 2;
+    private static final int LOCAL_RESULT = LOCAL_EXECUTED + 3;
+    private static final int MAX_LOCALS = LOCAL_EXECUTED + 4;
+    private static final int MAX_STACK = 6;
+    
+    private static final int LOCAL_PC = LOCAL_FIRST_REGISTER + Register.PC.ordinal();
+    private static final int LOCAL_SP = LOCAL_FIRST_REGISTER + Register.SP.ordinal();
+    private static final int LOCAL_EX = LOCAL_FIRST_REGISTER + Register.EX.ordinal();
+    
+    private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+    
+    /**
+     * how an operand is accessed within the compiled code
+     */
+    private static enum AccessKind {
+        REGISTER,
+        PC,
+        MEMORY,
+        MEMORY_CONSTANT,
+        LITERAL
+    }
+    
+    private static final class Access {
+        private final AccessKind kind;
+        private final int value;
+
+        public Access(AccessKind kind, int value) {
+            this.kind = kind;
+            this.value = value;
+        }
+    }
+    
+    private final PagedRam ram;
+    private final int blockStart;
+    private final int blockEnd;
+    private final CodeBuilder code;
+    private final boolean[] writtenRegisters = new boolean[REGISTERS.length];
+    private final Label exit;
+    private boolean pcWritten;
+    
+    private BlockCompiler(PagedRam ram, int blockStart, int blockEnd, CodeBuilder code) {
+        this.ram = ram;
+        this.blockStart = blockStart;
+        this.blockEnd = blockEnd;
+        this.code = code;
+        this.exit = new Label();
+    }
+    
+    /**
+     * compiles the leading part of the given block. Returns null if
+     * not even the first instruction of the block can be compiled.
+     * 
+     * @param block the block to compile
+     * @param ram the ram the block was decoded from
+     * @return 
+     */
+    public static CompiledBlock compile(BasicBlock block, PagedRam ram) {
+        final DecodedInstruction[] instructions = block.getInstructions();
+        int compilable = 0;
+        while (compilable < instructions.length && isCompilable(instructions[compilable])) {
+            compilable++;
+        }
+        if (compilable == 0) {
+            return null;
+        }
+        
+        final String className = CLASS_NAME_PREFIX + CLASS_COUNTER.incrementAndGet();
+        final ClassFileWriter classFile = new ClassFileWriter(className, "java/lang/Object");
+        classFile.addInterface(COMPILED_BLOCK);
+        
+        final CodeBuilder constructor = new CodeBuilder(classFile);
+        constructor.aload(0);
+        constructor.invoke(CodeBuilder.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        constructor.emit(CodeBuilder.RETURN);
+        classFile.addMethod("<init>", "()V", constructor, 1, 1);
+        
+        final CodeBuilder execute = new CodeBuilder(classFile);
+        new BlockCompiler(ram, block.getStartAddress(), block.getEndAddress(), execute)
+                .compileInstructions(instructions, compilable);
+        classFile.addMethod("execute", EXECUTE_DESCRIPTOR, execute, MAX_STACK, MAX_LOCALS);
+        
+        final Class<?> compiledClass = new BlockClassLoader()
+                .define(className.replace('/', '.'), classFile.toByteArray());
+        try {
+            return (CompiledBlock) compiledClass.newInstance();
+        } catch (InstantiationException | IllegalAccessException ex) {
+            throw new IllegalStateException("Could not instantiate " + compiledClass);
+        }
+    }
+    
+    private static boolean isCompilable(DecodedInstruction instruction) {
+        switch (instruction.getOperation()) {
+            case SET:
+            case ADD:
+            case SUB:
+            case MUL:
+            case MLI:
+            case DIV:
+            case DVI:
+            case MOD:
+            case MDI:
+            case SHR:
+            case ASR:
+            case SHL:
+            case ADX:
+            case SBX:
+            case AND:
+            case BOR:
+            case XOR:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    private void compileInstructions(DecodedInstruction[] instructions, int count) {
+        //load all registers but the pc into locals
+        for (Register register : REGISTERS) {
+            if (register != Register.PC) {
+                code.aload(LOCAL_REGISTERS);
+                code.iconst(register.ordinal());
+                code.emit(CodeBuilder.IALOAD);
+                code.istore(LOCAL_FIRST_REGISTER + register.ordinal());
+            }
+        }
+        
+        int address = blockStart;
+        for (int i = 0; i < count; ++i) {
+            final DecodedInstruction instruction = instructions[i];
+            final int endAddress = address + instruction.getLength();
+            final boolean leaveBlock = compileInstruction(instruction, address, endAddress, i + 1);
+            address = endAddress;
+            
+            if (leaveBlock || i == count - 1) {
+                exitBlock(endAddress, i + 1);
+                break;
+            }
+        }
+        
+        //write back the registers
+        code.mark(exit);
+        for (Register register : REGISTERS) {
+            if (register == Register.PC || writtenRegisters[register.ordinal()]) {
+                code.aload(LOCAL_REGISTERS);
+                code.iconst(register.ordinal());
+                code.iload(LOCAL_FIRST_REGISTER + register.ordinal());
+                code.emit(CodeBuilder.IASTORE);
+            }
+        }
+        code.iload(LOCAL_EXECUTED);
+        code.emit(CodeBuilder.IRETURN);
+    }
+    
+    /**
+     * compiles one instruction and returns true if the block
+     * has to be left after it because it modified its own code
+     */
+    private boolean compileInstruction(DecodedInstruction instruction, int address, int endAddress, int executed) {
+        final int instructionWord = ram.get(address);
+        int nextWordAddress = address + 1;
+        
+        final int operandCodeA = (instructionWord >> 10) & 0b0011_1111;
+        final int nextWordA = instruction.getOperandA().hasNextWord() ? ram.get(nextWordAddress++) : 0;
+        final Access a = resolve(operandCodeA, false, nextWordA, endAddress, LOCAL_ADDRESS_A);
+        
+        final int operandCodeB = (instructionWord >> 5) & 0b0001_1111;
+        final int nextWordB = instruction.getOperandB().hasNextWord() ? ram.get(nextWordAddress) : 0;
+        final Access b = resolve(operandCodeB, true, nextWordB, endAddress, LOCAL_ADDRESS_B);
+        
+        final Operation operation = instruction.getOperation();
+        switch (operation) {
+            case SET:
+                load(a);
+                code.istore(LOCAL_RESULT);
+                break;
+            case AND:
+                logical(b, a, CodeBuilder.IAND);
+                break;
+            case BOR:
+                logical(b, a, CodeBuilder.IOR);
+                break;
+            case XOR:
+                logical(b, a, CodeBuilder.IXOR);
+                break;
+            default:
+                //the same alu kernel the interpreter uses (result in the
+                //lower, EX in the upper 16 bits)
+                load(b);
+                load(a);
+                final String name = operation.name().toLowerCase(Locale.ENGLISH);
+                if (operation == Operation.ADX || operation == Operation.SBX) {
+                    code.iload(LOCAL_EX);
+                    code.invoke(CodeBuilder.INVOKESTATIC, ALU, name, "(III)I");
+                } else {
+                    code.invoke(CodeBuilder.INVOKESTATIC, ALU, name, "(II)I");
+                }
+                code.istore(LOCAL_RESULT);
+                break;
+        }
+        
+        store(b, LOCAL_RESULT);
+        
+        if (setsEx(operation)) {
+            code.iload(LOCAL_RESULT);
+            code.iconst(16);
+            code.emit(CodeBuilder.IUSHR);
+            code.istore(LOCAL_EX);
+            writtenRegisters[Register.EX.ordinal()] = true;
+        }
+        
+        return leaveIfCodeChanged(b, endAddress, executed);
+    }
+    
+    private static boolean setsEx(Operation operation) {
+        switch (operation) {
+            case SET:
+            case MOD:
+            case MDI:
+            case AND:
+            case BOR:
+            case XOR:
+                return false;
+            default:
+                return true;
+        }
+    }
+    
+    private void logical(Access b, Access a, int opcode) {
+        load(b);
+        load(a);
+        code.emit(opcode);
+        code.istore(LOCAL_RESULT);
+    }
+    
+    /**
+     * emits the code that resolves the operand (including its side effects
+     * on SP) and returns how its value can be accessed
+     */
+    private Access resolve(int operandCode, boolean operandB, int nextWord, int endAddress, int addressLocal) {
+        if (operandCode <= 0x07) {
+            return new Access(AccessKind.REGISTER, operandCode);
+        } else
+            if (operandCode <= 0x0f) {
+                code.iload(LOCAL_FIRST_REGISTER + operandCode - 0x08);
+                code.istore(addressLocal);
+                return new Access(AccessKind.MEMORY, addressLocal);
+            } else
+                if (operandCode <= 0x17) {
+                    code.iload(LOCAL_FIRST_REGISTER + operandCode - 0x10);
+                    code.iconst(nextWord);
+                    code.emit(CodeBuilder.IADD);
+                    code.iconst(0xFFFF);
+                    code.emit(CodeBuilder.IAND);
+                    code.istore(addressLocal);
+                    return new Access(AccessKind.MEMORY, addressLocal);
+                }
+        
+        switch (operandCode) {
+            case 0x18:
+                if (operandB) {
+                    //PUSH: [--SP]
+                    addToStackPointer(-1);
+                    code.iload(LOCAL_SP);
+                    code.istore(addressLocal);
+                } else {
+                    //POP: [SP++]
+                    code.iload(LOCAL_SP);
+                    code.istore(addressLocal);
+                    addToStackPointer(1);
+                }
+                return new Access(AccessKind.MEMORY, addressLocal);
+            case 0x19:
+                code.iload(LOCAL_SP);
+                code.istore(addressLocal);
+                return new Access(AccessKind.MEMORY, addressLocal);
+            case 0x1a:
+                code.iload(LOCAL_SP);
+                code.iconst(nextWord);
+                code.emit(CodeBuilder.IADD);
+                code.iconst(0xFFFF);
+                code.emit(CodeBuilder.IAND);
+                code.istore(addressLocal);
+                return new Access(AccessKind.MEMORY, addressLocal);
+            case 0x1b:
+                return new Access(AccessKind.REGISTER, Register.SP.ordinal());
+            case 0x1c:
+                //reading the pc always gives the address following the instruction
+                return new Access(AccessKind.PC, endAddress & 0xFFFF);
+            case 0x1d:
+                return new Access(AccessKind.REGISTER, Register.EX.ordinal());
+            case 0x1e:
+                return new Access(AccessKind.MEMORY_CONSTANT, nextWord);
+            case 0x1f:
+                return new Access(AccessKind.LITERAL, nextWord);
+            default:
+                return new Access(AccessKind.LITERAL, (operandCode - 0x21) & 0xFFFF);
+        }
+    }
+    
+    private void addToStackPointer(int delta) {
+        code.iload(LOCAL_SP);
+        code.iconst(delta);
+        code.emit(CodeBuilder.IADD);
+        code.iconst(0xFFFF);
+        code.emit(CodeBuilder.IAND);
+        code.istore(LOCAL_SP);
+        writtenRegisters[Register.SP.ordinal()] = true;
+    }
+    
+    private void load(Access access) {
+        switch (access.kind) {
+            case REGISTER:
+                code.iload(LOCAL_FIRST_REGISTER + access.value);
+                break;
+            case MEMORY:
+                code.aload(LOCAL_RAM);
+                code.iload(access.value);
+                code.iconst(PagedRam.PAGE_SHIFT);
+                code.emit(CodeBuilder.ISHR);
+                code.emit(CodeBuilder.AALOAD);
+                code.iload(access.value);
+                code.iconst(PagedRam.PAGE_MASK);
+                code.emit(CodeBuilder.IAND);
+                code.emit(CodeBuilder.CALOAD);
+                break;
+            case MEMORY_CONSTANT:
+                code.aload(LOCAL_RAM);
+                code.iconst(access.value >> PagedRam.PAGE_SHIFT);
+                code.emit(CodeBuilder.AALOAD);
+                code.iconst(access.value & PagedRam.PAGE_MASK);
+                code.emit(CodeBuilder.CALOAD);
+                break;
+            default:
+                code.iconst(access.value);
+                break;
+        }
+    }
+    
+    /**
+     * stores the value of the given local
+     */
+    private void store(Access access, int valueLocal) {
+        switch (access.kind) {
+            case REGISTER:
+                code.iload(valueLocal);
+                code.iconst(0xFFFF);
+                code.emit(CodeBuilder.IAND);
+                code.istore(LOCAL_FIRST_REGISTER + access.value);
+                writtenRegisters[access.value] = true;
+                break;
+            case PC:
+                code.iload(valueLocal);
+                code.iconst(0xFFFF);
+                code.emit(CodeBuilder.IAND);
+                code.istore(LOCAL_PC);
+                pcWritten = true;
+                break;
+            case MEMORY:
+                code.aload(LOCAL_DCPU);
+                code.iload(access.value);
+                code.iload(valueLocal);
+                code.invoke(CodeBuilder.INVOKEVIRTUAL, DCPU, "setRamValue", "(II)V");
+                break;
+            case MEMORY_CONSTANT:
+                code.aload(LOCAL_DCPU);
+                code.iconst(access.value);
+                code.iload(valueLocal);
+                code.invoke(CodeBuilder.INVOKEVIRTUAL, DCPU, "setRamValue", "(II)V");
+                break;
+            default:
+                //writing to a literal is silently ignored
+                break;
+        }
+    }
+    
+    /**
+     * leaves the block if the instruction overwrote the code of this
+     * block. Returns true if that is already known at compile time.
+     */
+    private boolean leaveIfCodeChanged(Access access, int endAddress, int executed) {
+        switch (access.kind) {
+            case MEMORY:
+                final Label outside = new Label();
+                code.iload(access.value);
+                code.iconst(blockStart);
+                code.jump(CodeBuilder.IF_ICMPLT, outside);
+                code.iload(access.value);
+                code.iconst(blockEnd);
+                code.jump(CodeBuilder.IF_ICMPGE, outside);
+                exitBlock(endAddress, executed);
+                code.mark(outside);
+                return false;
+            case MEMORY_CONSTANT:
+                return access.value >= blockStart && access.value < blockEnd;
+            default:
+                return false;
+        }
+    }
+    
+    private void exitBlock(int endAddress, int executed) {
+        if (!pcWritten) {
+            code.iconst(endAddress & 0xFFFF);
+            code.istore(LOCAL_PC);
+        }
+        code.iconst(executed);
+        code.istore(LOCAL_EXECUTED);
+        code.jump(CodeBuilder.GOTO, exit);
+    }
+    
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a minimal class file with one interface and public methods only.
+ * The class file version is 49 so no stack map frames are needed.
+ * 
+ * @author Florian Frankenberger
+ */
+final class ClassFileWriter {
+    
+    private static final int CLASS_FILE_VERSION = 49;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+    private final DataOutputStream constantPoolOut = new DataOutputStream(constantPool);
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int constantCount = 1;
+    
+    private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+    private final DataOutputStream methodsOut = new DataOutputStream(methods);
+    private int methodCount = 0;
+    
+    private final String className;
+    private final String superName;
+    private final List<String> interfaces = new ArrayList<>();
+
+    /**
+     * @param className internal name of the class (e.g. a/b/C)
+     * @param superName internal name of the super class
+     */
+    ClassFileWriter(String className, String superName) {
+        this.className = className;
+        this.superName = superName;
+    }
+    
+    void addInterface(String interfaceName) {
+        this.interfaces.add(interfaceName);
+    }
+    
+    /**
+     * adds a public method with the given code
+     * 
+     * @param name
+     * @param descriptor
+     * @param code
+     * @param maxStack
+     * @param maxLocals 
+     */
+    void addMethod(String name, String descriptor, CodeBuilder code, int maxStack, int maxLocals) {
+        try {
+            final byte[] bytes = code.toByteArray();
+            methodsOut.writeShort(ACC_PUBLIC);
+            methodsOut.writeShort(utf8(name));
+            methodsOut.writeShort(utf8(descriptor));
+            methodsOut.writeShort(1); //one attribute: code
+            methodsOut.writeShort(utf8("Code"));
+            methodsOut.writeInt(12 + bytes.length);
+            methodsOut.writeShort(maxStack);
+            methodsOut.writeShort(maxLocals);
+            methodsOut.writeInt(bytes.length);
+            methodsOut.write(bytes);
+            methodsOut.writeShort(0); //no exception table
+            methodsOut.writeShort(0); //no attributes
+            methodCount++;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    byte[] toByteArray() {
+        try {
+            final int thisClass = classRef(className);
+            final int superClass = classRef(superName);
+            final int[] interfaceRefs = new int[interfaces.size()];
+            for (int i = 0; i < interfaceRefs.length; ++i) {
+                interfaceRefs[i] = classRef(interfaces.get(i));
+            }
+            
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_FILE_VERSION);
+            out.writeShort(constantCount);
+            constantPool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaceRefs.length);
+            for (int interfaceRef : interfaceRefs) {
+                out.writeShort(interfaceRef);
+            }
+            out.writeShort(0); //no fields
+            out.writeShort(methodCount);
+            methods.writeTo(out);
+            out.writeShort(0); //no attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    int utf8(String value) {
+        final String key = "U" + value;
+        Integer index = constants.get(key);
+        if (index == null) {
+            try {
+                constantPoolOut.writeByte(CONSTANT_UTF8);
+                constantPoolOut.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = register(key);
+        }
+        return index;
+    }
+    
+    int integer(int value) {
+        final String key = "I" + value;
+        Integer index = constants.get(key);
+        if (index == null) {
+            try {
+                constantPoolOut.writeByte(CONSTANT_INTEGER);
+                constantPoolOut.writeInt(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = register(key);
+        }
+        return index;
+    }
+    
+    int classRef(String internalName) {
+        final String key = "C" + internalName;
+        Integer index = constants.get(key);
+        if (index == null) {
+            final int nameIndex = utf8(internalName);
+            try {
+                constantPoolOut.writeByte(CONSTANT_CLASS);
+                constantPoolOut.writeShort(nameIndex);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = register(key);
+        }
+        return index;
+    }
+    
+    int methodRef(String owner, String name, String descriptor) {
+        final String key = "M" + owner + "." + name + descriptor;
+        Integer index = constants.get(key);
+        if (index == null) {
+            final int ownerIndex = classRef(owner);
+            final int nameAndTypeIndex = nameAndType(name, descriptor);
+            try {
+                constantPoolOut.writeByte(CONSTANT_METHODREF);
+                constantPoolOut.writeShort(ownerIndex);
+                constantPoolOut.writeShort(nameAndTypeIndex);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = register(key);
+        }
+        return index;
+    }
+    
+    private int nameAndType(String name, String descriptor) {
+        final String key = "N" + name + descriptor;
+        Integer index = constants.get(key);
+        if (index == null) {
+            final int nameIndex = utf8(name);
+            final int descriptorIndex = utf8(descriptor);
+            try {
+                constantPoolOut.writeByte(CONSTANT_NAME_AND_TYPE);
+                constantPoolOut.writeShort(nameIndex);
+                constantPoolOut.writeShort(descriptorIndex);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = register(key);
+        }
+        return index;
+    }
+    
+    private int register(String key) {
+        final int index = constantCount++;
+        constants.put(key, index);
+        return index;
+    }
+    
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assembles the bytecode of a single method. Only the handful of
+ * opcodes needed by the {@link BlockCompiler} are supported.
+ * 
+ * @author Florian Frankenberger
+ */
+final class CodeBuilder {
+    
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int ILOAD = 0x15;
+    static final int ALOAD = 0x19;
+    static final int IALOAD = 0x2e;
+    static final int AALOAD = 0x32;
+    static final int CALOAD = 0x34;
+    static final int ISTORE = 0x36;
+    static final int IASTORE = 0x4f;
+    static final int POP = 0x57;
+    static final int IADD = 0x60;
+    static final int ISUB = 0x64;
+    static final int IMUL = 0x68;
+    static final int IREM = 0x70;
+    static final int ISHR = 0x7a;
+    static final int IUSHR = 0x7c;
+    static final int IAND = 0x7e;
+    static final int IOR = 0x80;
+    static final int IXOR = 0x82;
+    static final int I2S = 0x93;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IF_ICMPLT = 0xa1;
+    static final int IF_ICMPGE = 0xa2;
+    static final int GOTO = 0xa7;
+    static final int IRETURN = 0xac;
+    static final int RETURN = 0xb1;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    
+    /**
+     * a jump target within the method
+     */
+    static final class Label {
+        private int position = -1;
+    }
+    
+    private final ClassFileWriter classFile;
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private final List<Label> jumpLabels = new ArrayList<>();
+    private final List<Integer> jumpPositions = new ArrayList<>();
+
+    CodeBuilder(ClassFileWriter classFile) {
+        this.classFile = classFile;
+    }
+    
+    void emit(int opcode) {
+        code.write(opcode);
+    }
+    
+    void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            emit(ICONST_0 + value);
+        } else
+            if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                emit(BIPUSH);
+                emit(value & 0xFF);
+            } else
+                if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                    emit(SIPUSH);
+                    emitShort(value);
+                } else {
+                    emit(LDC_W);
+                    emitShort(classFile.integer(value));
+                }
+    }
+    
+    void iload(int local) {
+        emit(ILOAD);
+        emit(local);
+    }
+    
+    void istore(int local) {
+        emit(ISTORE);
+        emit(local);
+    }
+    
+    void aload(int local) {
+        emit(ALOAD);
+        emit(local);
+    }
+    
+    void invoke(int opcode, String owner, String name, String descriptor) {
+        emit(opcode);
+        emitShort(classFile.methodRef(owner, name, descriptor));
+    }
+    
+    void jump(int opcode, Label label) {
+        jumpLabels.add(label);
+        jumpPositions.add(code.size());
+        emit(opcode);
+        emitShort(0); //patched in toByteArray()
+    }
+    
+    void mark(Label label) {
+        label.position = code.size();
+    }
+    
+    byte[] toByteArray() {
+        final byte[] bytes = code.toByteArray();
+        for (int i = 0; i < jumpLabels.size(); ++i) {
+            final int position = jumpPositions.get(i);
+            final int offset = jumpLabels.get(i).position - position;
+            bytes[position + 1] = (byte) (offset >> 8);
+            bytes[position + 2] = (byte) offset;
+        }
+        return bytes;
+    }
+    
+    private void emitShort(int value) {
+        code.write((value >> 8) & 0xFF);
+        code.write(value & 0xFF);
+    }
+    
+}
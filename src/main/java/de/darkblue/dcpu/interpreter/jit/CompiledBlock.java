@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter.jit;
+
+import de.darkblue.dcpu.interpreter.DCPU;
+import de.darkblue.dcpu.interpreter.PagedRam;
+
+/**
+ * A basic block translated to JVM bytecode by the {@link BlockCompiler}.
+ * 
+ * @author Florian Frankenberger
+ */
+public interface CompiledBlock {
+    
+    /**
+     * executes the compiled instructions. Registers are read from and
+     * written back to the given array, ram writes go through
+     * {@link DCPU#setRamValue(int, int)}. The PC is set to the
+     * address following the last executed instruction (or the jump target).
+     * 
+     * @param dcpu the dcpu interpreter
+     * @param ram the pages of the ram of the dcpu (see {@link PagedRam}, only read)
+     * @param registers the registers of the dcpu indexed by their ordinal
+     * @return the number of instructions that have been executed. This is
+     *         less than the compiled instructions if the block modified 
+     *         its own code.
+     */
+    int execute(DCPU dcpu, char[][] ram, int[] registers);
+    
+}
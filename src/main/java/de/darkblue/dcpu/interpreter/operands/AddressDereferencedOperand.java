@@ -17,10 +17,7 @@
 
 package de.darkblue.dcpu.interpreter.operands;
 
-import de.darkblue.dcpu.interpreter.Command;
 import de.darkblue.dcpu.interpreter.DCPU;
-import de.darkblue.dcpu.interpreter.NopCommand;
-import de.darkblue.dcpu.parser.instructions.Word;
 
 /**
  *
@@ -30,14 +27,13 @@ import de.darkblue.dcpu.parser.instructions.Word;
 public class AddressDereferencedOperand extends Operand {
 
     @Override
-    public Word getMemoryCell(DCPU dcpu, OperandMode mode) {
-        dcpu.getPc().inc();
-        return dcpu.getRam(dcpu.getRam(dcpu.getPc()));
+    public boolean hasNextWord() {
+        return true;
     }
 
     @Override
-    public Command additionalCommand(OperandMode mode) {
-        return new NopCommand();
+    public int getLocation(DCPU dcpu, OperandMode mode) {
+        return DCPU.ramLocation(dcpu.nextWord());
     }
 
 }
@@ -17,10 +17,7 @@
 
 package de.darkblue.dcpu.interpreter.operands;
 
-import de.darkblue.dcpu.interpreter.Command;
 import de.darkblue.dcpu.interpreter.DCPU;
-import de.darkblue.dcpu.interpreter.NopCommand;
-import de.darkblue.dcpu.parser.instructions.Word;
 
 /**
  *
@@ -32,23 +29,16 @@ import de.darkblue.dcpu.parser.instructions.Word;
 public class LiteralOperand extends Operand {
 
     @Override
-    public Word getMemoryCell(DCPU dcpu, OperandMode mode) {
-        if (this.value == 0x1f) {
-            dcpu.getPc().inc();
-            return dcpu.getRam(dcpu.getPc());
-        } else {
-            final Word word = new Word();
-            word.setSignedInt(value - 0x21);
-            return word;
-        }
+    public boolean hasNextWord() {
+        return this.value == 0x1f;
     }
 
     @Override
-    public Command additionalCommand(OperandMode mode) {
+    public int getLocation(DCPU dcpu, OperandMode mode) {
         if (this.value == 0x1f) {
-            return new NopCommand(); // +1 for reading the next word
+            return DCPU.literalLocation(dcpu.nextWord());
         } else {
-            return null;
+            return DCPU.literalLocation(value - 0x21);
         }
     }
 
@@ -16,9 +16,7 @@
  */
 package de.darkblue.dcpu.interpreter.operands;
 
-import de.darkblue.dcpu.interpreter.Command;
 import de.darkblue.dcpu.interpreter.DCPU;
-import de.darkblue.dcpu.parser.instructions.Word;
 
 /**
  *
@@ -36,26 +34,38 @@ public abstract class Operand {
     public void setValue(int value) {
         this.value = value;
     }
-    
+
     /**
-     * returns the memory cell that is designated by
-     * this operand either to set or read from. Note that no
-     * side effects other than an increasing in pc is allowed
-     * here - all other side effects have to put in the additional
-     * command (because it is possible they are skipped).
-     * 
-     * @param dcpu the dcpu interpreter
-     * @param mode determines if this operand is A or B
-     * @return 
+     * returns true if this operand reads the next word
+     * following the instruction
+     *
+     * @return
      */
-    public abstract Word getMemoryCell(DCPU dcpu, OperandMode mode);
-    
+    public boolean hasNextWord() {
+        return false;
+    }
+
     /**
-     * returns an possible additional command that is
-     * executed right after(!) the getMemoryCell call
+     * returns the additional cpu cycles needed to
+     * resolve this operand
+     *
+     * @return
+     */
+    public int getCycles() {
+        return hasNextWord() ? 1 : 0;
+    }
+
+    /**
+     * returns the location (see {@link DCPU#read(int)}) that is 
+     * designated by this operand either to set or read from. Side effects
+     * like reading the next word or changing the stack pointer are 
+     * applied directly. Operands are shared by all emulators, so they
+     * must not keep any state other than their operand code.
      * 
+     * @param dcpu the dcpu interpreter
+     * @param mode determines if this operand is A or B
      * @return 
      */
-    public abstract Command additionalCommand(OperandMode mode);
+    public abstract int getLocation(DCPU dcpu, OperandMode mode);
     
 }
@@ -17,9 +17,8 @@
 
 package de.darkblue.dcpu.interpreter.operands;
 
-import de.darkblue.dcpu.interpreter.Command;
 import de.darkblue.dcpu.interpreter.DCPU;
-import de.darkblue.dcpu.parser.instructions.Word;
+import de.darkblue.dcpu.interpreter.Register;
 
 /**
  *
@@ -29,13 +28,8 @@ import de.darkblue.dcpu.parser.instructions.Word;
 public class PeekOperand extends Operand {
 
     @Override
-    public Word getMemoryCell(DCPU dcpu, OperandMode mode) {
-        return dcpu.getRam(dcpu.getSp());
-    }
-
-    @Override
-    public Command additionalCommand(OperandMode mode) {
-        return null;
+    public int getLocation(DCPU dcpu, OperandMode mode) {
+        return DCPU.ramLocation(dcpu.getRegisterValue(Register.SP));
     }
 
 }
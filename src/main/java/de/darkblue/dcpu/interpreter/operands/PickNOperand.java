@@ -17,10 +17,8 @@
 
 package de.darkblue.dcpu.interpreter.operands;
 
-import de.darkblue.dcpu.interpreter.Command;
 import de.darkblue.dcpu.interpreter.DCPU;
-import de.darkblue.dcpu.interpreter.NopCommand;
-import de.darkblue.dcpu.parser.instructions.Word;
+import de.darkblue.dcpu.interpreter.Register;
 
 /**
  *
@@ -30,17 +28,13 @@ import de.darkblue.dcpu.parser.instructions.Word;
 public class PickNOperand extends Operand {
 
     @Override
-    public Word getMemoryCell(DCPU dcpu, OperandMode mode) {
-        dcpu.getPc().inc();
-        final Word totalValue = dcpu.getRam(dcpu.getPc()).clone();        
-        totalValue.addLocal(dcpu.getSp());
-
-        return dcpu.getRam(totalValue);
+    public boolean hasNextWord() {
+        return true;
     }
 
     @Override
-    public Command additionalCommand(OperandMode mode) {
-        return new NopCommand(); //+1
+    public int getLocation(DCPU dcpu, OperandMode mode) {
+        return DCPU.ramLocation(dcpu.nextWord() + dcpu.getRegisterValue(Register.SP));
     }
 
 }
@@ -17,9 +17,8 @@
 
 package de.darkblue.dcpu.interpreter.operands;
 
-import de.darkblue.dcpu.interpreter.Command;
 import de.darkblue.dcpu.interpreter.DCPU;
-import de.darkblue.dcpu.parser.instructions.Word;
+import de.darkblue.dcpu.interpreter.Register;
 
 /**
  *
@@ -29,28 +28,17 @@ import de.darkblue.dcpu.parser.instructions.Word;
 public class PushOrPopOperand extends Operand {
 
     @Override
-    public Word getMemoryCell(DCPU dcpu, OperandMode mode) {
+    public int getLocation(DCPU dcpu, OperandMode mode) {
+        final int sp = dcpu.getRegisterValue(Register.SP);
         if (mode == OperandMode.MODE_OPERAND_B) {
-            return dcpu.getRam(dcpu.getSp().subtract(Word.ONE));
+            //PUSH: [--SP]
+            dcpu.setRegisterValue(Register.SP, sp - 1);
+            return DCPU.ramLocation(sp - 1);
         } else {
-            return dcpu.getRam(dcpu.getSp());
+            //POP: [SP++]
+            dcpu.setRegisterValue(Register.SP, sp + 1);
+            return DCPU.ramLocation(sp);
         }
     }
 
-    @Override
-    public Command additionalCommand(final OperandMode mode) {
-        return new Command(false) { //out of unknown reason this does not count as work for notch ;)
-
-            @Override
-            public void execute(DCPU dcpu) {
-                if (mode == OperandMode.MODE_OPERAND_B) {
-                    dcpu.getSp().dec();
-                } else {
-                    dcpu.getSp().inc();
-                }
-            }
-            
-        };
-    }
-
 }
@@ -17,11 +17,8 @@
 
 package de.darkblue.dcpu.interpreter.operands;
 
-import de.darkblue.dcpu.interpreter.Command;
 import de.darkblue.dcpu.interpreter.DCPU;
-import de.darkblue.dcpu.interpreter.NopCommand;
 import de.darkblue.dcpu.interpreter.Register;
-import de.darkblue.dcpu.parser.instructions.Word;
 
 /**
  *
@@ -31,9 +28,12 @@ import de.darkblue.dcpu.parser.instructions.Word;
 public class RegisterDereferencedAddNextWordOperand extends Operand {
 
     @Override
-    public Word getMemoryCell(DCPU dcpu, OperandMode mode) {
-        dcpu.getPc().inc();
-        final Word totalValue = dcpu.getRam(dcpu.getPc()).clone();        
+    public boolean hasNextWord() {
+        return true;
+    }
+
+    @Override
+    public int getLocation(DCPU dcpu, OperandMode mode) {
         Register register;
         switch (this.value) {
             case 0x10:
@@ -64,13 +64,7 @@ public class RegisterDereferencedAddNextWordOperand extends Operand {
                 throw new IllegalArgumentException("value is not in range");
         }
         
-        totalValue.addLocal(dcpu.getRegister(register));
-        return dcpu.getRam(totalValue);
-    }
-
-    @Override
-    public Command additionalCommand(OperandMode mode) {
-        return new NopCommand(); //+1 cycles
+        return DCPU.ramLocation(dcpu.nextWord() + dcpu.getRegisterValue(register));
     }
 
 }
@@ -17,11 +17,8 @@
 
 package de.darkblue.dcpu.interpreter.operands;
 
-import de.darkblue.dcpu.interpreter.Command;
 import de.darkblue.dcpu.interpreter.DCPU;
-import de.darkblue.dcpu.interpreter.NopCommand;
 import de.darkblue.dcpu.interpreter.Register;
-import de.darkblue.dcpu.parser.instructions.Word;
 
 /**
  *
@@ -31,7 +28,12 @@ import de.darkblue.dcpu.parser.instructions.Word;
 public class RegisterDereferencedOperand extends Operand {
 
     @Override
-    public Word getMemoryCell(DCPU dcpu, OperandMode mode) {
+    public int getCycles() {
+        return 1;
+    }
+
+    @Override
+    public int getLocation(DCPU dcpu, OperandMode mode) {
         Register register;
         switch (this.value) {
             case 0x08:
@@ -62,12 +64,7 @@ public class RegisterDereferencedOperand extends Operand {
                 throw new IllegalArgumentException("value is not in range");
         }
         
-        return dcpu.getRam(dcpu.getRegister(register));
-    }
-
-    @Override
-    public Command additionalCommand(OperandMode mode) {
-        return new NopCommand(); //+1 cycles
+        return DCPU.ramLocation(dcpu.getRegisterValue(register));
     }
 
 }
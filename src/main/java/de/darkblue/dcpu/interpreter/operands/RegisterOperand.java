@@ -17,10 +17,8 @@
 
 package de.darkblue.dcpu.interpreter.operands;
 
-import de.darkblue.dcpu.interpreter.Command;
 import de.darkblue.dcpu.interpreter.DCPU;
 import de.darkblue.dcpu.interpreter.Register;
-import de.darkblue.dcpu.parser.instructions.Word;
 
 /**
  *
@@ -30,38 +28,33 @@ import de.darkblue.dcpu.parser.instructions.Word;
 public class RegisterOperand extends Operand {
 
     @Override
-    public Word getMemoryCell(DCPU dcpu, OperandMode mode) {
+    public int getLocation(DCPU dcpu, OperandMode mode) {
         switch (this.value) {
             case 0x00:
-                return dcpu.getRegister(Register.A);
+                return DCPU.registerLocation(Register.A);
             case 0x01:
-                return dcpu.getRegister(Register.B);
+                return DCPU.registerLocation(Register.B);
             case 0x02:
-                return dcpu.getRegister(Register.C);
+                return DCPU.registerLocation(Register.C);
             case 0x03:
-                return dcpu.getRegister(Register.X);
+                return DCPU.registerLocation(Register.X);
             case 0x04:
-                return dcpu.getRegister(Register.Y);
+                return DCPU.registerLocation(Register.Y);
             case 0x05:
-                return dcpu.getRegister(Register.Z);
+                return DCPU.registerLocation(Register.Z);
             case 0x06:
-                return dcpu.getRegister(Register.I);
+                return DCPU.registerLocation(Register.I);
             case 0x07:
-                return dcpu.getRegister(Register.J);
+                return DCPU.registerLocation(Register.J);
             case 0x1b:
-                return dcpu.getRegister(Register.SP);
+                return DCPU.registerLocation(Register.SP);
             case 0x1c:
-                return dcpu.getRegister(Register.PC);
+                return DCPU.registerLocation(Register.PC);
             case 0x1d:
-                return dcpu.getRegister(Register.EX);
+                return DCPU.registerLocation(Register.EX);
             default:
                 throw new IllegalArgumentException("value is not in range");
         }
     }
 
-    @Override
-    public Command additionalCommand(OperandMode mode) {
-        return null;
-    }
-
 }
@@ -18,6 +18,7 @@
 package de.darkblue.dcpu.parser;
 
 import de.darkblue.dcpu.interpreter.DCPU;
+import de.darkblue.dcpu.interpreter.LineTable;
 import de.darkblue.dcpu.parser.instructions.Instruction;
 import de.darkblue.dcpu.parser.instructions.Operand;
 import de.darkblue.dcpu.parser.instructions.Operation;
@@ -128,17 +129,17 @@ public class DCPUCode {
      * @param out
      * @throws IOException
      * @throws SemanticException 
-     * @return returns a map containing a memory to line no mapping
+     * @return returns a table mapping memory addresses to line numbers
      */
-    public Map<Word, Integer> store(OutputStream out) throws IOException, SemanticException {
+    public LineTable store(OutputStream out) throws IOException, SemanticException {
         resolveJumpMarkings();
 
-        final Map<Word, Integer> memoryToLineNoMap = new HashMap<>();
+        final LineTable lineTable = new LineTable();
         DataOutputStream dataOut = new DataOutputStream(out);
         
         final Word position = new Word();
         for (final Instruction instruction : instructions) {
-            memoryToLineNoMap.put(position.clone(), instruction.getLineNo());
+            lineTable.put(position.unsignedIntValue(), instruction.getLineNo());
             
             if (instruction.getOperation() != Operation.DAT) {
                 //DAT is not stored
@@ -163,7 +164,7 @@ public class DCPUCode {
             }
         }
         
-        return memoryToLineNoMap;
+        return lineTable;
     }
     
     /**
@@ -175,8 +176,8 @@ public class DCPUCode {
     public void store(DCPU dcpu) throws IOException, SemanticException {
         final ByteArrayOutputStream byteOut = 
                 new ByteArrayOutputStream();
-        final Map<Word, Integer> memoryLineNoMapping = this.store(byteOut);
-        dcpu.setMemoryToLineNoMapping(memoryLineNoMapping);
+        final LineTable lineTable = this.store(byteOut);
+        dcpu.setLineTable(lineTable);
         byteOut.flush();
 
         final ByteArrayInputStream byteIn = 
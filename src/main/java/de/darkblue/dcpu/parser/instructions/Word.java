@@ -17,6 +17,7 @@
 
 package de.darkblue.dcpu.parser.instructions;
 
+import de.darkblue.dcpu.interpreter.Alu;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -55,8 +56,7 @@ public class Word {
      * @return 
      */
     public Word addLocal(Word other) {
-        this.setWord(this.word + other.word);
-        return checkOverOrUnderflow();
+        return apply(Alu.add(this.word, other.word));
     }
     
     /**
@@ -83,8 +83,7 @@ public class Word {
      * @return 
      */
     public Word subtractLocal(Word other) {
-        this.setWord(word - other.word);
-        return checkOverOrUnderflow();
+        return apply(Alu.sub(this.word, other.word));
     }    
     
     /**
@@ -104,44 +103,27 @@ public class Word {
     }
     
     public Word multiplyLocal(Word other) {
-        this.word = word * other.word;
-        final Word overflowWord = new Word();
-        if (this.word > 0xFFFF) {
-            overflowWord.setUnsignedInt((this.word >> 16) & 0xFFFF);
-        }
-        this.setUnsignedInt(word & 0xFFFF);
-        return overflowWord;
+        return apply(Alu.mul(this.word, other.word));
     }
     
     public Word multiplySignedLocal(Word other) {
-        int value = signedIntValue() * other.signedIntValue();
-        final Word overflowWord = new Word();
-        if (this.word > 127 || this.word < -128) {
-            overflowWord.setSignedInt((this.word >> 16) & 0xFFFF);
-        }
-        this.setSignedInt(value);
-        return overflowWord;
+        return apply(Alu.mli(this.word, other.word));
     }
     
     public void modLocal(Word other) {
-        if (other.equals(Word.ZERO)) {
-            this.set(Word.ZERO);
-        } else {
-            setWord(word % other.word);
-        }
+        this.setWord(Alu.mod(this.word, other.word));
     }
     
-    private Word checkOverOrUnderflow() {
-        final Word overUnderflowRegister = new Word();
-        while (this.word > 0xFFFF) {
-            this.setWord(this.word - 0xFFFF);
-            overUnderflowRegister.set(Word.ONE);
-        }
-        while (this.word < 0) {
-            this.setWord(0xFFFF - this.word);
-            overUnderflowRegister.set(Word.ONE);
-        }
-        return overUnderflowRegister;
+    /**
+     * sets this word to the result of the given packed alu
+     * result and returns the overflow register.
+     * 
+     * @param packed
+     * @return 
+     */
+    private Word apply(int packed) {
+        this.setWord(Alu.result(packed));
+        return new Word(Alu.ex(packed));
     }
     
     public void setInstruction(Instruction instruction) {
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates the InstructionRegistry that creates all instructions and
+ * operands annotated with @InstructionDefinition or @OperandDefinition, so
+ * no classpath scanning is needed at runtime. The instruction and operand
+ * packages are scanned completely (including already compiled classes), so
+ * the registry is complete on incremental builds as well.
+ * 
+ * @author Florian Frankenberger
+ */
+@SupportedAnnotationTypes({
+    RegistryProcessor.INSTRUCTION_DEFINITION,
+    RegistryProcessor.OPERAND_DEFINITION
+})
+public class RegistryProcessor extends AbstractProcessor {
+    
+    static final String INSTRUCTION_DEFINITION = "de.darkblue.dcpu.interpreter.instructions.InstructionDefinition";
+    static final String OPERAND_DEFINITION = "de.darkblue.dcpu.interpreter.operands.OperandDefinition";
+    
+    private static final String PACKAGE_INSTRUCTIONS = "de.darkblue.dcpu.interpreter.instructions";
+    private static final String PACKAGE_OPERANDS = "de.darkblue.dcpu.interpreter.operands";
+    
+    private static final String REGISTRY_PACKAGE = "de.darkblue.dcpu.interpreter";
+    private static final String REGISTRY_NAME = "InstructionRegistry";
+    
+    private boolean generated = false;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+    
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        //the definitions are only meant for this processor, so they are claimed
+        if (generated || annotations.isEmpty()) {
+            return true;
+        }
+        generated = true;
+        
+        //operation name -> [class name, cycles]
+        final Map<String, String[]> instructions = new TreeMap<>();
+        for (TypeElement type : getDefinedClasses(PACKAGE_INSTRUCTIONS)) {
+            final AnnotationMirror definition = getAnnotation(type, INSTRUCTION_DEFINITION);
+            if (definition != null) {
+                final String operation = ((VariableElement) getValue(definition, "operation")).getSimpleName().toString();
+                final String cycles = String.valueOf(getValue(definition, "cycles"));
+                if (instructions.put(operation, new String[] {type.getQualifiedName().toString(), cycles}) != null) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, 
+                            "Operation " + operation + " is defined twice", type);
+                }
+            }
+        }
+        
+        //operand code -> class name
+        final Map<Integer, String> operands = new TreeMap<>();
+        for (TypeElement type : getDefinedClasses(PACKAGE_OPERANDS)) {
+            final AnnotationMirror definition = getAnnotation(type, OPERAND_DEFINITION);
+            if (definition != null) {
+                for (Object operandCode : (List<?>) getValue(definition, "operandCodes")) {
+                    final Integer code = (Integer) ((AnnotationValue) operandCode).getValue();
+                    if (operands.put(code, type.getQualifiedName().toString()) != null) {
+                        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, 
+                                "Operand code " + code + " is defined twice", type);
+                    }
+                }
+            }
+        }
+        
+        try {
+            writeRegistry(instructions, operands);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, 
+                    "Could not write " + REGISTRY_NAME + ": " + e.getMessage());
+        }
+        return true;
+    }
+    
+    private List<TypeElement> getDefinedClasses(String packageName) {
+        final PackageElement packageElement = processingEnv.getElementUtils().getPackageElement(packageName);
+        if (packageElement == null) {
+            return Collections.emptyList();
+        }
+        
+        final List<TypeElement> types = new ArrayList<>();
+        for (Element element : packageElement.getEnclosedElements()) {
+            if (element.getKind() == ElementKind.CLASS && !element.getModifiers().contains(Modifier.ABSTRACT)) {
+                types.add((TypeElement) element);
+            }
+        }
+        return types;
+    }
+    
+    private static AnnotationMirror getAnnotation(TypeElement type, String annotationName) {
+        for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+            final TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+            if (annotationType.getQualifiedName().contentEquals(annotationName)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+    
+    private Object getValue(AnnotationMirror mirror, String name) {
+        final Map<? extends ExecutableElement, ? extends AnnotationValue> values = 
+                processingEnv.getElementUtils().getElementValuesWithDefaults(mirror);
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : values.entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue().getValue();
+            }
+        }
+        throw new IllegalStateException("Annotation " + mirror + " has no value " + name);
+    }
+    
+    private void writeRegistry(Map<String, String[]> instructions, Map<Integer, String> operands) throws IOException {
+        final JavaFileObject file = processingEnv.getFiler().createSourceFile(REGISTRY_PACKAGE + "." + REGISTRY_NAME);
+        try (PrintWriter out = new PrintWriter(file.openWriter())) {
+            out.println("package " + REGISTRY_PACKAGE + ";");
+            out.println();
+            out.println("import de.darkblue.dcpu.interpreter.instructions.Instruction;");
+            out.println("import de.darkblue.dcpu.interpreter.operands.Operand;");
+            out.println("import de.darkblue.dcpu.parser.instructions.Operation;");
+            out.println("import java.util.Map;");
+            out.println();
+            out.println("/**");
+            out.println(" * Generated by " + RegistryProcessor.class.getName() + " - do not edit");
+            out.println(" */");
+            out.println("final class " + REGISTRY_NAME + " {");
+            out.println();
+            out.println("    private " + REGISTRY_NAME + "() {");
+            out.println("    }");
+            out.println();
+            out.println("    static void registerInstructions(Map<Operation, Instruction> instructions, Map<Operation, Integer> cycles) {");
+            for (Map.Entry<String, String[]> entry : instructions.entrySet()) {
+                out.println("        instructions.put(Operation." + entry.getKey() + ", new " + entry.getValue()[0] + "());");
+                out.println("        cycles.put(Operation." + entry.getKey() + ", " + entry.getValue()[1] + ");");
+            }
+            out.println("    }");
+            out.println();
+            out.println("    static void registerOperands(Operand[] operands) {");
+            for (Map.Entry<Integer, String> entry : operands.entrySet()) {
+                final String index = String.format("0x%02x", entry.getKey());
+                out.println("        operands[" + index + "] = new " + entry.getValue() + "();");
+                out.println("        operands[" + index + "].setValue(" + index + ");");
+            }
+            out.println("    }");
+            out.println();
+            out.println("}");
+        }
+    }
+    
+}
@@ -19,6 +19,7 @@ package de.darkblue.dcpu.view;
 
 import de.darkblue.dcpu.interpreter.DCPU;
 import de.darkblue.dcpu.interpreter.DCPUListener;
+import de.darkblue.dcpu.interpreter.DCPUSubscription;
 import de.darkblue.dcpu.interpreter.Register;
 import de.darkblue.dcpu.parser.instructions.Word;
 import javax.swing.table.AbstractTableModel;
@@ -33,7 +34,8 @@ public class DCPUMemoryTableModel extends AbstractTableModel implements DCPUList
     
     public DCPUMemoryTableModel(DCPU dcpu) {
         this.dcpu = dcpu;
-        this.dcpu.registerListener(this);
+        this.dcpu.registerListener(this, new DCPUSubscription()
+                .ram(0, dcpu.getRamSize()));
     }
 
     @Override
@@ -75,12 +77,8 @@ public class DCPUMemoryTableModel extends AbstractTableModel implements DCPUList
     }
 
     @Override
-    public void onRamValueChanged(DCPU dcpu, Word position) {
-        int positionValue = position.unsignedIntValue();
-        int row = positionValue / 16;
-        int col = positionValue % 16;
-        
-        fireTableCellUpdated(row, col + 1);
+    public void onRamValuesChanged(DCPU dcpu, int fromAddress, int toAddress) {
+        fireTableRowsUpdated(fromAddress / 16, (toAddress - 1) / 16);
     }
 
     @Override
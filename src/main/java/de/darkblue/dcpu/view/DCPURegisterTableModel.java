@@ -19,8 +19,8 @@ package de.darkblue.dcpu.view;
 
 import de.darkblue.dcpu.interpreter.DCPU;
 import de.darkblue.dcpu.interpreter.DCPUListener;
+import de.darkblue.dcpu.interpreter.DCPUSubscription;
 import de.darkblue.dcpu.interpreter.Register;
-import de.darkblue.dcpu.parser.instructions.Word;
 import javax.swing.table.AbstractTableModel;
 
 /**
@@ -33,7 +33,9 @@ public class DCPURegisterTableModel extends AbstractTableModel implements DCPULi
     
     public DCPURegisterTableModel(DCPU dcpu) {
         this.dcpu = dcpu;
-        this.dcpu.registerListener(this);
+        this.dcpu.registerListener(this, new DCPUSubscription()
+                .registers(Register.values())
+                .cycles(1));
     }
 
     @Override
@@ -75,7 +77,7 @@ public class DCPURegisterTableModel extends AbstractTableModel implements DCPULi
     }
 
     @Override
-    public void onRamValueChanged(DCPU dcpu, Word position) {
+    public void onRamValuesChanged(DCPU dcpu, int fromAddress, int toAddress) {
     }
 
     @Override
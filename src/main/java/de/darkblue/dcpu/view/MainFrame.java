@@ -16,14 +16,15 @@
  */
 package de.darkblue.dcpu.view;
 
+import de.darkblue.dcpu.interpreter.AsyncDCPUListener;
 import de.darkblue.dcpu.interpreter.DCPU;
 import de.darkblue.dcpu.interpreter.DCPUListener;
+import de.darkblue.dcpu.interpreter.DCPUSubscription;
 import de.darkblue.dcpu.interpreter.Register;
 import de.darkblue.dcpu.parser.DCPUCode;
 import de.darkblue.dcpu.parser.Parser;
 import de.darkblue.dcpu.parser.ParserException;
 import de.darkblue.dcpu.parser.SemanticException;
-import de.darkblue.dcpu.parser.instructions.Word;
 import java.awt.Point;
 import java.io.File;
 import java.io.FileReader;
@@ -71,6 +72,7 @@ public class MainFrame extends javax.swing.JFrame {
     
     private RSyntaxTextArea codeArea;
     private final DCPU dcpu;
+    private final AsyncDCPUListener dcpuListener;
     
     private final MemoryFrame memoryFrame;
     private final RegistersFrame registersFrame;
@@ -85,10 +87,11 @@ public class MainFrame extends javax.swing.JFrame {
      */
     public MainFrame(DCPU dcpu) {
         this.dcpu = dcpu;
-        this.dcpu.registerListener(new DCPUListener() {
+        //the gui is updated on its own thread so it can't slow down the emulation
+        this.dcpuListener = new AsyncDCPUListener(new DCPUListener() {
 
             @Override
-            public void onRamValueChanged(DCPU dcpu, Word position) {
+            public void onRamValuesChanged(DCPU dcpu, int fromAddress, int toAddress) {
             }
 
             @Override
@@ -126,6 +129,9 @@ public class MainFrame extends javax.swing.JFrame {
             }
             
         });
+        this.dcpu.registerListener(dcpuListener, new DCPUSubscription()
+                .registers(Register.PC)
+                .lines());
         
         initComponents();
         initCodeArea();
@@ -147,6 +153,14 @@ public class MainFrame extends javax.swing.JFrame {
         this.setCodeFile(null);
     }
     
+    @Override
+    public void dispose() {
+        //stops the dispatch thread of the listener
+        dcpu.removeListener(dcpuListener);
+        dcpuListener.close();
+        super.dispose();
+    }
+    
     private void setNeedsCompilation(boolean needsCompilation) {
         this.needsCompilation = needsCompilation;
         this.compileButton.setEnabled(needsCompilation);
@@ -18,17 +18,13 @@ package de.darkblue.dcpu.view;
 
 import de.darkblue.dcpu.parser.instructions.Operation;
 import de.darkblue.dcpu.parser.instructions.Word;
-import de.darkblue.dcpu.parser.instructions.WordChangeListener;
 
 /**
  *
  * @author Florian Frankenberger
  */
-public class MemoryCellInformationPanel extends javax.swing.JPanel implements WordChangeListener {
+public class MemoryCellInformationPanel extends javax.swing.JPanel {
 
-    private String memoryCellId;
-    private Word memoryCell;
-    
     /**
      * Creates new form MemoryCellInformationPanel
      */
@@ -36,14 +32,28 @@ public class MemoryCellInformationPanel extends javax.swing.JPanel implements Wo
         initComponents();
     }
 
+    /**
+     * shows the given value of a memory cell. The value is a copy, so
+     * this has to be called again when the cell changes.
+     * 
+     * @param memoryCellId
+     * @param memoryCell 
+     */
     public void setMemoryCell(String memoryCellId, Word memoryCell) {
-        if (this.memoryCell != null) {
-            this.memoryCell.removeListener(this);
-        }
-        this.memoryCellId = memoryCellId;
-        this.memoryCell = memoryCell;
-        this.memoryCell.registerListener(this);
-        this.onValueChanged(memoryCell);
+        this.memoryCellIdLabel.setText(memoryCellId);
+        
+        this.decimalLabel.setText(String.format("%05d", memoryCell.unsignedIntValue()));
+        this.hexLabel.setText("0x" + memoryCell.toHexString());
+        this.binLabel.setText("0b" + memoryCell.toBinaryString());
+        
+        final Operation operand = Operation.getByOpcode(memoryCell.getOperationCode(), 
+                memoryCell.hasTwoOperandsAsInstruction() ? 2 : 1);
+        this.opcodeLabel.setText(operand != null 
+                ? operand.name() 
+                : String.format("0x%02x", memoryCell.getOperationCode()));
+        
+        this.operandBLabel.setText(String.format("0x%02x", memoryCell.getOperandB()));
+        this.operandALabel.setText(String.format("0x%02x", memoryCell.getOperandA()));
     }
     
     /**
@@ -217,22 +227,4 @@ public class MemoryCellInformationPanel extends javax.swing.JPanel implements Wo
     private javax.swing.JLabel operandALabel;
     private javax.swing.JLabel operandBLabel;
     // End of variables declaration//GEN-END:variables
-
-    @Override
-    public void onValueChanged(Word word) {
-        this.memoryCellIdLabel.setText(memoryCellId);
-        
-        this.decimalLabel.setText(String.format("%05d", word.unsignedIntValue()));
-        this.hexLabel.setText("0x" + word.toHexString());
-        this.binLabel.setText("0b" + word.toBinaryString());
-        
-        final Operation operand = Operation.getByOpcode(word.getOperationCode(), 
-                word.hasTwoOperandsAsInstruction() ? 2 : 1);
-        this.opcodeLabel.setText(operand != null 
-                ? operand.name() 
-                : String.format("0x%02x", word.getOperationCode()));
-        
-        this.operandBLabel.setText(String.format("0x%02x", word.getOperandB()));
-        this.operandALabel.setText(String.format("0x%02x", word.getOperandA()));
-    }
 }
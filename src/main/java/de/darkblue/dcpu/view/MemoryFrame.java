@@ -26,6 +26,8 @@ import javax.swing.JTable;
 import javax.swing.ListSelectionModel;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
 import javax.swing.table.DefaultTableCellRenderer;
 
 /**
@@ -56,7 +58,7 @@ public class MemoryFrame extends javax.swing.JDialog {
         });
         
         //update the cell information panel
-        ListSelectionListener listSelectionListener = new ListSelectionListener() {
+        final ListSelectionListener listSelectionListener = new ListSelectionListener() {
 
             @Override
             public void valueChanged(ListSelectionEvent e) {
@@ -70,6 +72,21 @@ public class MemoryFrame extends javax.swing.JDialog {
         this.ramTable.getSelectionModel().addListSelectionListener(listSelectionListener);
         this.ramTable.getColumnModel().getSelectionModel().addListSelectionListener(listSelectionListener);
         
+        //the panel only gets a copy of the cell, so we update it whenever the selected cell changes
+        this.ramTable.getModel().addTableModelListener(new TableModelListener() {
+
+            @Override
+            public void tableChanged(TableModelEvent e) {
+                int col = ramTable.convertColumnIndexToModel(ramTable.getSelectedColumn());
+                int row = ramTable.convertRowIndexToModel(ramTable.getSelectedRow());
+                if (e.getFirstRow() <= row && e.getLastRow() >= row 
+                        && (e.getColumn() == TableModelEvent.ALL_COLUMNS || e.getColumn() == col)) {
+                    listSelectionListener.valueChanged(null);
+                }
+            }
+            
+        });
+        
         //change selected and first cell design
         this.ramTable.setDefaultRenderer(Word.class, new DefaultTableCellRenderer() {
             @Override
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the branch-free {@link Alu} against a straight forward
+ * implementation of the DCPU-16 1.7 spec. By default all pairs of a set
+ * of boundary values are tested - run with -Dalu.exhaustive=true to test
+ * all 2^32 operand pairs.
+ *
+ * @author Florian Frankenberger
+ */
+public class AluTest extends TestCase {
+
+    private static final int[] EX_VALUES = {0x0000, 0x0001, 0x8000, 0xFFFF};
+
+    private static final int[] OPERANDS = operands();
+
+    private static int[] operands() {
+        if (Boolean.getBoolean("alu.exhaustive")) {
+            final int[] values = new int[0x10000];
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = i;
+            }
+            return values;
+        }
+
+        //everything around 0, 0x8000 and 0xFFFF
+        final int[] values = new int[0x200 * 3];
+        int index = 0;
+        for (int i = 0; i < 0x200; ++i) {
+            values[index++] = i;
+        }
+        for (int i = 0x7F00; i < 0x8100; ++i) {
+            values[index++] = i;
+        }
+        for (int i = 0xFE00; i < 0x10000; ++i) {
+            values[index++] = i;
+        }
+        return values;
+    }
+
+    public void testAdd() {
+        for (int b : OPERANDS) {
+            for (int a : OPERANDS) {
+                final long sum = (long) b + a;
+                check("ADD", b, a, Alu.add(b, a), sum & 0xFFFF, sum > 0xFFFF ? 0x0001 : 0x0000);
+            }
+        }
+    }
+
+    public void testSub() {
+        for (int b : OPERANDS) {
+            for (int a : OPERANDS) {
+                final long difference = (long) b - a;
+                check("SUB", b, a, Alu.sub(b, a), difference & 0xFFFF, difference < 0 ? 0xFFFF : 0x0000);
+            }
+        }
+    }
+
+    public void testMul() {
+        for (int b : OPERANDS) {
+            for (int a : OPERANDS) {
+                final long product = (long) b * a;
+                check("MUL", b, a, Alu.mul(b, a), product & 0xFFFF, (product >> 16) & 0xFFFF);
+            }
+        }
+    }
+
+    public void testMli() {
+        for (int b : OPERANDS) {
+            for (int a : OPERANDS) {
+                final long product = (long) signed(b) * signed(a);
+                check("MLI", b, a, Alu.mli(b, a), product & 0xFFFF, (product >> 16) & 0xFFFF);
+            }
+        }
+    }
+
+    public void testDiv() {
+        for (int b : OPERANDS) {
+            for (int a : OPERANDS) {
+                if (a == 0) {
+                    check("DIV", b, a, Alu.div(b, a), 0, 0);
+                } else {
+                    check("DIV", b, a, Alu.div(b, a), (b / a) & 0xFFFF, (((long) b << 16) / a) & 0xFFFF);
+                }
+            }
+        }
+    }
+
+    public void testDvi() {
+        for (int b : OPERANDS) {
+            for (int a : OPERANDS) {
+                if (a == 0) {
+                    check("DVI", b, a, Alu.dvi(b, a), 0, 0);
+                } else {
+                    final long dividend = signed(b);
+                    final long divisor = signed(a);
+                    check("DVI", b, a, Alu.dvi(b, a), (dividend / divisor) & 0xFFFF, ((dividend << 16) / divisor) & 0xFFFF);
+                }
+            }
+        }
+    }
+
+    public void testMod() {
+        for (int b : OPERANDS) {
+            for (int a : OPERANDS) {
+                check("MOD", b, a, Alu.mod(b, a), a == 0 ? 0 : b % a, 0);
+            }
+        }
+    }
+
+    public void testMdi() {
+        for (int b : OPERANDS) {
+            for (int a : OPERANDS) {
+                check("MDI", b, a, Alu.mdi(b, a), a == 0 ? 0 : (signed(b) % signed(a)) & 0xFFFF, 0);
+            }
+        }
+    }
+
+    public void testShr() {
+        for (int b : OPERANDS) {
+            for (int a : OPERANDS) {
+                final long result = a >= 16 ? 0 : b >>> a;
+                final long ex = a >= 32 ? 0 : (((long) b << 16) >>> a) & 0xFFFF;
+                check("SHR", b, a, Alu.shr(b, a), result, ex);
+            }
+        }
+    }
+
+    public void testAsr() {
+        for (int b : OPERANDS) {
+            for (int a : OPERANDS) {
+                final long result = (signed(b) >> Math.min(a, 31)) & 0xFFFF;
+                final long ex = a >= 32 ? 0 : (((long) b << 16) >>> a) & 0xFFFF;
+                check("ASR", b, a, Alu.asr(b, a), result, ex);
+            }
+        }
+    }
+
+    public void testShl() {
+        for (int b : OPERANDS) {
+            for (int a : OPERANDS) {
+                final long shifted = a >= 32 ? 0 : (long) b << a;
+                check("SHL", b, a, Alu.shl(b, a), shifted & 0xFFFF, (shifted >> 16) & 0xFFFF);
+            }
+        }
+    }
+
+    public void testAdx() {
+        for (int ex : EX_VALUES) {
+            for (int b : OPERANDS) {
+                for (int a : OPERANDS) {
+                    final long sum = (long) b + a + ex;
+                    check("ADX", b, a, Alu.adx(b, a, ex), sum & 0xFFFF, sum > 0xFFFF ? 0x0001 : 0x0000);
+                }
+            }
+        }
+    }
+
+    public void testSbx() {
+        for (int ex : EX_VALUES) {
+            for (int b : OPERANDS) {
+                for (int a : OPERANDS) {
+                    final long difference = (long) b - a + ex;
+                    final long expectedEx = difference < 0 ? 0xFFFF : (difference > 0xFFFF ? 0x0001 : 0x0000);
+                    check("SBX", b, a, Alu.sbx(b, a, ex), difference & 0xFFFF, expectedEx);
+                }
+            }
+        }
+    }
+
+    /**
+     * checks a packed result - MOD and MDI do not set EX, so their
+     * ex part has to be 0
+     */
+    private static void check(String operation, int b, int a, int packed, long result, long ex) {
+        if (Alu.result(packed) != result || Alu.ex(packed) != ex) {
+            fail(operation + " " + hex(b) + ", " + hex(a) + ": expected " + hex(result) + " (EX " + hex(ex)
+                    + ") but was " + hex(Alu.result(packed)) + " (EX " + hex(Alu.ex(packed)) + ")");
+        }
+    }
+
+    private static int signed(int value) {
+        return (short) value;
+    }
+
+    private static String hex(long value) {
+        return String.format("0x%04x", value);
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.darkblue.dcpu.interpreter;
+
+import de.darkblue.dcpu.interpreter.AsyncDCPUListener.OverflowPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Tests the overflow policies of {@link AsyncDCPUListener}. The wrapped
+ * listener blocks the dispatch thread in the first event until the test
+ * opens the gate, so the ring fills up deterministically.
+ *
+ * @author Florian Frankenberger
+ */
+public class AsyncDCPUListenerTest extends TestCase {
+
+    private static final int CAPACITY = 4;
+
+    private final DCPU dcpu = new DCPU();
+    private final RecordingListener recorder = new RecordingListener();
+    private AsyncDCPUListener listener;
+
+    @Override
+    protected void tearDown() throws Exception {
+        recorder.gate.countDown();
+        if (listener != null) {
+            listener.close();
+        }
+    }
+
+    public void testCoalesce() throws Exception {
+        listener = fill(OverflowPolicy.COALESCE);
+        listener.onRamValuesChanged(dcpu, 10, 12);
+        listener.onRegisterValueChanged(dcpu, Register.C);
+        listener.onRamValuesChanged(dcpu, 5, 6);
+        listener.onCyclesUpdate(dcpu, 100);
+        listener.onRegisterValueChanged(dcpu, Register.B);
+        listener.onCyclesUpdate(dcpu, 200);
+        listener.onNewLine(dcpu, 7);
+        listener.onRegisterValueChanged(dcpu, Register.C);
+
+        recorder.gate.countDown();
+        //the merged events follow the buffered ones
+        assertEquals(Arrays.asList("start", "ram 0-2", "ram 2-4", "register A", "cycles 10",
+                "ram 5-12", "register B", "register C", "cycles 200", "line 7"), 
+                recorder.awaitEvents(10));
+        assertEquals(0, listener.getDroppedEvents());
+    }
+
+    public void testDrop() throws Exception {
+        listener = fill(OverflowPolicy.DROP);
+        listener.onRamValuesChanged(dcpu, 10, 12);
+        listener.onRegisterValueChanged(dcpu, Register.B);
+        listener.onCyclesUpdate(dcpu, 100);
+        assertEquals(3, listener.getDroppedEvents());
+
+        recorder.gate.countDown();
+        assertEquals(Arrays.asList("start", "ram 0-2", "ram 2-4", "register A", "cycles 10"),
+                recorder.awaitEvents(5));
+        
+        //there is space again
+        listener.onNewLine(dcpu, 7);
+        assertEquals("line 7", recorder.awaitEvents(6).get(5));
+        assertEquals(3, listener.getDroppedEvents());
+    }
+
+    public void testBlock() throws Exception {
+        listener = fill(OverflowPolicy.BLOCK);
+        final Thread producer = publishOnOtherThread(new Runnable() {
+
+            @Override
+            public void run() {
+                listener.onRamValuesChanged(dcpu, 10, 12);
+                listener.onNewLine(dcpu, 7);
+            }
+
+        });
+        producer.join(200);
+        assertTrue("the producer did not block", producer.isAlive());
+
+        recorder.gate.countDown();
+        producer.join(5_000);
+        assertFalse("the producer did not resume", producer.isAlive());
+        assertEquals(Arrays.asList("start", "ram 0-2", "ram 2-4", "register A", "cycles 10", 
+                "ram 10-12", "line 7"), recorder.awaitEvents(7));
+        assertEquals(0, listener.getDroppedEvents());
+    }
+
+    public void testLifecycleEventsAreNotDropped() throws Exception {
+        for (OverflowPolicy policy : new OverflowPolicy[] {OverflowPolicy.COALESCE, OverflowPolicy.DROP}) {
+            final RecordingListener recorder = new RecordingListener();
+            final AsyncDCPUListener listener = fill(recorder, policy);
+            try {
+                listener.onRamValuesChanged(dcpu, 10, 12);
+                final Thread producer = publishOnOtherThread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        listener.onStopEmulation(dcpu);
+                        listener.onResetEmulation(dcpu);
+                        listener.onStartEmulation(dcpu);
+                    }
+
+                });
+                //the lifecycle events wait for space instead
+                producer.join(200);
+                assertTrue(policy + ": the lifecycle events did not wait", producer.isAlive());
+
+                recorder.gate.countDown();
+                producer.join(5_000);
+                assertFalse(policy + ": the producer did not resume", producer.isAlive());
+                final List<String> events = recorder.awaitEvents(policy == OverflowPolicy.COALESCE ? 9 : 8);
+                assertEquals(policy.name(), Arrays.asList("stop", "reset", "start"), 
+                        events.subList(events.size() - 3, events.size()));
+                if (policy == OverflowPolicy.COALESCE) {
+                    //the coalesced event was delivered before
+                    assertEquals("ram 10-12", events.get(5));
+                }
+            } finally {
+                recorder.gate.countDown();
+                listener.close();
+            }
+        }
+    }
+
+    public void testClose() throws Exception {
+        listener = new AsyncDCPUListener(recorder, CAPACITY, OverflowPolicy.COALESCE);
+        recorder.gate.countDown();
+        listener.onStartEmulation(dcpu);
+        recorder.awaitEvents(1);
+
+        listener.close();
+        final Thread dispatchThread = recorder.dispatchThread;
+        dispatchThread.join(5_000);
+        assertFalse("the dispatch thread is still running", dispatchThread.isAlive());
+
+        listener.onStopEmulation(dcpu);
+        Thread.sleep(50);
+        assertEquals(Arrays.asList("start"), recorder.getEvents());
+    }
+
+    private AsyncDCPUListener fill(OverflowPolicy policy) throws InterruptedException {
+        return fill(recorder, policy);
+    }
+
+    /**
+     * creates a listener whose dispatch thread is blocked in the 
+     * start event and whose ring is full
+     */
+    private AsyncDCPUListener fill(RecordingListener recorder, OverflowPolicy policy) 
+            throws InterruptedException {
+        final AsyncDCPUListener listener = new AsyncDCPUListener(recorder, CAPACITY, policy);
+        listener.onStartEmulation(dcpu);
+        assertTrue(recorder.entered.await(5, TimeUnit.SECONDS));
+        listener.onRamValuesChanged(dcpu, 0, 2);
+        listener.onRamValuesChanged(dcpu, 2, 4);
+        listener.onRegisterValueChanged(dcpu, Register.A);
+        listener.onCyclesUpdate(dcpu, 10);
+        return listener;
+    }
+
+    private static Thread publishOnOtherThread(Runnable publisher) {
+        final Thread thread = new Thread(publisher, "producer");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * records the events as strings
+     */
+    private static final class RecordingListener implements DCPUListener {
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List<String> events = new ArrayList<>();
+        private volatile Thread dispatchThread;
+
+        synchronized List<String> getEvents() {
+            return new ArrayList<>(events);
+        }
+
+        /**
+         * waits until the given amount of events was recorded
+         */
+        synchronized List<String> awaitEvents(int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 5_000;
+            while (events.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            return getEvents();
+        }
+
+        private void record(String event) {
+            dispatchThread = Thread.currentThread();
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                events.add(event);
+                notifyAll();
+            }
+        }
+
+        @Override
+        public void onStartEmulation(DCPU dcpu) {
+            record("start");
+        }
+
+        @Override
+        public void onStopEmulation(DCPU dcpu) {
+            record("stop");
+        }
+
+        @Override
+        public void onResetEmulation(DCPU dcpu) {
+            record("reset");
+        }
+
+        @Override
+        public void onRamValuesChanged(DCPU dcpu, int fromAddress, int toAddress) {
+            record("ram " + fromAddress + "-" + toAddress);
+        }
+
+        @Override
+        public void onRegisterValueChanged(DCPU dcpu, Register register) {
+            record("register " + register);
+        }
+
+        @Override
+        public void onCyclesUpdate(DCPU dcpu, long totalCycles) {
+            record("cycles " + totalCycles);
+        }
+
+        @Override
+        public void onNewLine(DCPU dcpu, int line) {
+            record("line " + line);
+        }
+
+    }
+
+}
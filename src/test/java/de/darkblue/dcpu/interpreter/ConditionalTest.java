@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.darkblue.dcpu.interpreter;
+
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Tests skipping the instructions after a failed conditional.
+ *
+ * @author Florian Frankenberger
+ */
+public class ConditionalTest extends TestCase {
+
+    public void testSkipThreeWordInstruction() {
+        final DCPU dcpu = load(
+            0x8812,                 //IFE A, 1
+            0x7fc1, 0x1234, 0x2000, //SET [0x2000], 0x1234
+            0x8861,                 //SET X, 1
+            0x0000                  //DAT 0
+        );
+        assertEquals(ExitReason.HALTED, dcpu.run(1_000));
+        assertEquals(0, dcpu.getRamValue(0x2000));
+        assertEquals(1, dcpu.getRegisterValue(Register.X));
+        //IFE + 1 for the failed test + SET
+        assertEquals(2 + 1 + 1, dcpu.getCycles());
+    }
+
+    public void testChainedConditionals() {
+        final DCPU dcpu = load(
+            0x8812,                 //IFE A, 1
+            0x8413,                 //IFN A, 0
+            0x7c14, 0x0005,         //IFG A, 5
+            0x7fc1, 0x1234, 0x2000, //SET [0x2000], 0x1234
+            0x8861,                 //SET X, 1
+            0x0000                  //DAT 0
+        );
+        assertEquals(ExitReason.HALTED, dcpu.run(1_000));
+        assertEquals(0, dcpu.getRamValue(0x2000));
+        assertEquals(1, dcpu.getRegisterValue(Register.X));
+        //IFE + 1 for the failed test + 1 per skipped conditional + SET
+        assertEquals(2 + 1 + 2 + 1, dcpu.getCycles());
+    }
+
+    public void testPassedConditional() {
+        final DCPU dcpu = load(
+            0x8412,                 //IFE A, 0
+            0x7fc1, 0x1234, 0x2000, //SET [0x2000], 0x1234
+            0x0000                  //DAT 0
+        );
+        assertEquals(ExitReason.HALTED, dcpu.run(1_000));
+        assertEquals(0x1234, dcpu.getRamValue(0x2000));
+        //IFE + SET with two next words
+        assertEquals(2 + 3, dcpu.getCycles());
+    }
+
+    /**
+     * a ram full of IFN A, A - every test fails and the
+     * chain of conditionals never ends
+     */
+    public void testRamFullOfConditionals() {
+        final char[] ram = new char[PagedRam.SIZE];
+        Arrays.fill(ram, (char) 0x0013);
+        final DCPU dcpu = new DCPU();
+        dcpu.loadProgram(new ProgramImage(ram));
+        assertEquals(ExitReason.BUDGET_EXHAUSTED, dcpu.run(1_000_000));
+    }
+
+    private static DCPU load(int... words) {
+        final char[] program = new char[words.length];
+        for (int i = 0; i < words.length; ++i) {
+            program[i] = (char) words[i];
+        }
+        final DCPU dcpu = new DCPU();
+        dcpu.loadProgram(new ProgramImage(program));
+        return dcpu;
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.darkblue.dcpu.interpreter;
+
+import de.darkblue.dcpu.interpreter.DCPUScheduler.State;
+import de.darkblue.dcpu.interpreter.DCPUScheduler.Task;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests the slices, pausing, cancelling and the shutdown 
+ * of {@link DCPUScheduler}.
+ *
+ * @author Florian Frankenberger
+ */
+public class DCPUSchedulerTest extends TestCase {
+
+    private static final long QUANTUM = 1_000;
+
+    /**
+     * counts in A forever
+     */
+    private static final ProgramImage COUNTER = new ProgramImage(new char[] {
+        0x8802,         //ADD A, 1
+        0x8781          //SET PC, 0
+    });
+
+    /**
+     * counts A up to 1000, sets B to 1 at address 4 and loops there
+     */
+    private static final ProgramImage COUNT_TO_1000 = new ProgramImage(new char[] {
+        0x8802,         //ADD A, 1
+        0x7c13, 1000,   //IFN A, 1000
+        0x8781,         //SET PC, 0
+        0x8821,         //SET B, 1
+        0x8b83          //SUB PC, 1
+    });
+
+    private DCPUScheduler scheduler;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    public void testPriorityWeightedSlices() throws Exception {
+        //one worker executes the slices strictly round robin
+        scheduler = new DCPUScheduler(1, QUANTUM);
+        final Task low = scheduler.submit(load(COUNTER), 1, 10 * QUANTUM);
+        final Task high = scheduler.submit(load(COUNTER), 3, 30 * QUANTUM);
+
+        low.awaitFinished();
+        assertEquals(State.FINISHED, low.getState());
+        assertEquals(ExitReason.BUDGET_EXHAUSTED, low.getLastExitReason());
+        //the budget can be exceeded by the last instruction only
+        assertTrue(low.getExecutedCycles() >= 10 * QUANTUM);
+        assertTrue(low.getExecutedCycles() < 10 * QUANTUM + 10);
+        //the high priority task got three times the cycles per slice
+        assertTrue("" + high.getExecutedCycles(), high.getExecutedCycles() >= 9 * 3 * QUANTUM);
+
+        high.awaitFinished();
+        assertEquals(ExitReason.BUDGET_EXHAUSTED, high.getLastExitReason());
+        assertTrue(high.getExecutedCycles() >= 30 * QUANTUM);
+        assertTrue(high.getExecutedCycles() < 30 * QUANTUM + 10);
+        assertEquals(high.getExecutedCycles(), high.getDcpu().getCycles());
+    }
+
+    public void testHugeQuantum() throws Exception {
+        //quantum * priority must not overflow
+        scheduler = new DCPUScheduler(1, Long.MAX_VALUE / 2);
+        final Task task = scheduler.submit(load(COUNTER), 3, 10 * QUANTUM);
+        awaitState(task, State.FINISHED);
+        assertEquals(ExitReason.BUDGET_EXHAUSTED, task.getLastExitReason());
+        assertTrue(task.getExecutedCycles() >= 10 * QUANTUM);
+    }
+
+    public void testBreakpointPausesTask() throws Exception {
+        scheduler = new DCPUScheduler(1, QUANTUM);
+        final DCPU dcpu = load(COUNT_TO_1000);
+        dcpu.addBreakpoint(4);
+        final Task task = scheduler.submit(dcpu, 1, 100 * QUANTUM);
+
+        awaitState(task, State.PAUSED);
+        assertEquals(ExitReason.BREAKPOINT, task.getLastExitReason());
+        assertEquals(4, dcpu.getRegisterValue(Register.PC));
+        assertEquals(1000, dcpu.getRegisterValue(Register.A));
+        assertEquals(0, dcpu.getRegisterValue(Register.B));
+        final long pausedCycles = task.getExecutedCycles();
+        Thread.sleep(50);
+        assertEquals(pausedCycles, task.getExecutedCycles());
+
+        //continues behind the breakpoint until the quota is used up
+        task.resume();
+        task.awaitFinished();
+        assertEquals(ExitReason.BUDGET_EXHAUSTED, task.getLastExitReason());
+        assertEquals(1, dcpu.getRegisterValue(Register.B));
+        assertTrue(task.getExecutedCycles() >= 100 * QUANTUM);
+    }
+
+    public void testCancelDuringSlice() throws Exception {
+        //a single slice takes a while
+        scheduler = new DCPUScheduler(1, 1_000_000);
+        final Task task = scheduler.submit(load(COUNTER));
+        while (task.getExecutedCycles() == 0) {
+            Thread.sleep(1);
+        }
+
+        task.cancel();
+        assertEquals(State.FINISHED, task.getState());
+        task.awaitFinished();
+
+        //the slice being executed ends, but the task is not queued again
+        Thread.sleep(100);
+        final long cycles = task.getExecutedCycles();
+        Thread.sleep(100);
+        assertEquals(cycles, task.getExecutedCycles());
+        assertEquals(State.FINISHED, task.getState());
+    }
+
+    public void testShutdownReleasesWaiters() throws Exception {
+        scheduler = new DCPUScheduler(2, QUANTUM);
+        final List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            tasks.add(scheduler.submit(load(COUNTER)));
+        }
+        final Task paused = scheduler.submit(load(COUNTER));
+        paused.pause();
+        tasks.add(paused);
+
+        final List<Thread> waiters = new ArrayList<>();
+        for (final Task task : tasks) {
+            final Thread waiter = new Thread("waiter") {
+
+                @Override
+                public void run() {
+                    try {
+                        task.awaitFinished();
+                    } catch (InterruptedException e) {
+                        //the thread ends anyway
+                    }
+                }
+
+            };
+            waiter.setDaemon(true);
+            waiter.start();
+            waiters.add(waiter);
+        }
+        Thread.sleep(50);
+
+        scheduler.shutdown();
+        for (Thread waiter : waiters) {
+            waiter.join(5_000);
+            assertFalse("a waiter was not released", waiter.isAlive());
+        }
+        for (Task task : tasks) {
+            assertEquals(State.FINISHED, task.getState());
+        }
+
+        //tasks submitted after the shutdown are finished right away
+        final Task late = scheduler.submit(load(COUNTER));
+        assertEquals(State.FINISHED, late.getState());
+        assertEquals(0, late.getExecutedCycles());
+    }
+
+    private static DCPU load(ProgramImage program) {
+        final DCPU dcpu = new DCPU();
+        dcpu.loadProgram(program);
+        return dcpu;
+    }
+
+    private static void awaitState(Task task, State state) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5_000;
+        while (task.getState() != state && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(state, task.getState());
+    }
+
+}
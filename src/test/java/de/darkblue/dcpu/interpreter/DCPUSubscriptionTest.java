@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests the cycle updates delivered to subscribed listeners.
+ *
+ * @author Florian Frankenberger
+ */
+public class DCPUSubscriptionTest extends TestCase {
+
+    private static final int SUB_PC_1 = 0x8b83;
+
+    public void testFinalCyclesAreReportedOnStop() throws Exception {
+        final DCPU dcpu = new DCPU();
+        dcpu.setThrottled(false);
+        dcpu.setRamValue(0, SUB_PC_1);
+        
+        final CycleRecorder large = new CycleRecorder();
+        final CycleRecorder small = new CycleRecorder();
+        dcpu.registerListener(large, new DCPUSubscription().cycles(Long.MAX_VALUE));
+        dcpu.registerListener(small, new DCPUSubscription().cycles(1));
+        
+        dcpu.start();
+        //wait until the large interval got its first update and the dcpu ran on
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while ((large.getUpdates() == 0 || small.getLastCycles() - large.getLastCycles() < 100_000)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        dcpu.stop();
+        
+        assertTrue(dcpu.getCycles() - large.getFirstCycles() >= 100_000);
+        assertEquals(dcpu.getCycles(), large.getLastCycles());
+        assertEquals(dcpu.getCycles(), small.getLastCycles());
+        
+        //the final update is not repeated
+        final int updates = large.getUpdates();
+        dcpu.start();
+        dcpu.stop();
+        assertEquals(dcpu.getCycles(), large.getLastCycles());
+        assertTrue(large.getUpdates() <= updates + 1);
+    }
+
+    public void testUnsubscribedListenerGetsNoCycles() throws Exception {
+        final DCPU dcpu = new DCPU();
+        dcpu.setThrottled(false);
+        dcpu.setRamValue(0, SUB_PC_1);
+        
+        final CycleRecorder recorder = new CycleRecorder();
+        dcpu.registerListener(recorder, new DCPUSubscription().lines());
+        
+        dcpu.start();
+        Thread.sleep(50);
+        dcpu.stop();
+        
+        assertEquals(0, recorder.getUpdates());
+    }
+
+    private static class CycleRecorder implements DCPUListener {
+
+        private final List<Long> cycles = new ArrayList<>();
+
+        public synchronized long getFirstCycles() {
+            return cycles.isEmpty() ? -1L : cycles.get(0);
+        }
+
+        public synchronized long getLastCycles() {
+            return cycles.isEmpty() ? -1L : cycles.get(cycles.size() - 1);
+        }
+
+        public synchronized int getUpdates() {
+            return cycles.size();
+        }
+
+        @Override
+        public void onStartEmulation(DCPU dcpu) {
+        }
+
+        @Override
+        public void onStopEmulation(DCPU dcpu) {
+        }
+
+        @Override
+        public void onResetEmulation(DCPU dcpu) {
+        }
+
+        @Override
+        public void onRamValuesChanged(DCPU dcpu, int fromAddress, int toAddress) {
+        }
+
+        @Override
+        public void onRegisterValueChanged(DCPU dcpu, Register register) {
+        }
+
+        @Override
+        public synchronized void onCyclesUpdate(DCPU dcpu, long totalCycles) {
+            cycles.add(totalCycles);
+        }
+
+        @Override
+        public void onNewLine(DCPU dcpu, int line) {
+        }
+
+    }
+
+}
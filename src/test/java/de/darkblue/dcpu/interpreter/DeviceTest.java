@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.darkblue.dcpu.interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests HWN, HWQ and HWI and the cycles scheduled by devices.
+ *
+ * @author Florian Frankenberger
+ */
+public class DeviceTest extends TestCase {
+
+    private static final int INTERVAL = 100;
+
+    public void testEnumeration() {
+        final DCPU dcpu = load(
+            0x1a00,     //HWN I
+            0x8a20,     //HWQ 1
+            0x0000      //DAT 0
+        );
+        dcpu.attachDevice(new StubDevice(0x11112222, 1, 0x33334444));
+        dcpu.attachDevice(new StubDevice(0x12345678, 0x42, 0x9abcdef0));
+
+        assertEquals(ExitReason.HALTED, dcpu.run(1_000));
+        assertEquals(2, dcpu.getRegisterValue(Register.I));
+        assertEquals(0x5678, dcpu.getRegisterValue(Register.A));
+        assertEquals(0x1234, dcpu.getRegisterValue(Register.B));
+        assertEquals(0x42, dcpu.getRegisterValue(Register.C));
+        assertEquals(0xdef0, dcpu.getRegisterValue(Register.X));
+        assertEquals(0x9abc, dcpu.getRegisterValue(Register.Y));
+    }
+
+    public void testHardwareInterrupt() {
+        final DCPU dcpu = load(
+            0xa001,     //SET A, 7
+            0x8a40,     //HWI 1
+            0x8e40,     //HWI 2
+            0x0000      //DAT 0
+        );
+        final StubDevice first = new StubDevice(1, 1, 1);
+        final StubDevice second = new StubDevice(2, 1, 1);
+        second.additionalCycles = 3;
+        dcpu.attachDevice(first);
+        dcpu.attachDevice(second);
+
+        //HWI to a missing device is ignored
+        assertEquals(ExitReason.HALTED, dcpu.run(1_000));
+        assertEquals(0, first.interrupts.size());
+        assertEquals(1, second.interrupts.size());
+        assertEquals(7, (int) second.interrupts.get(0));
+        //SET + HWI with the additional cycles of the device + HWI
+        assertEquals(1 + 4 + 3 + 4, dcpu.getCycles());
+    }
+
+    public void testScheduledCycles() {
+        for (boolean jitEnabled : new boolean[] {false, true}) {
+            final DCPU dcpu = load(
+                0x8640,     //HWI 0
+                0x8802,     //ADD A, 1
+                0x7c42, 3,  //ADD C, 3
+                0x8b81      //SET PC, 1
+            );
+            dcpu.setJitEnabled(jitEnabled);
+            final StubDevice device = new StubDevice(1, 1, 1);
+            //long enough for the loop (4 cycles) to get compiled
+            device.reschedule = 2 * BasicBlock.COMPILE_THRESHOLD * 4 / INTERVAL;
+            dcpu.attachDevice(device);
+
+            //not before the deadline
+            dcpu.run(INTERVAL / 2);
+            assertEquals(1, device.deadlines.size());
+            assertEquals(0, device.calls.size());
+
+            dcpu.run(2 * device.reschedule * INTERVAL);
+            assertEquals(device.reschedule, device.calls.size());
+            for (int i = 0; i < device.calls.size(); ++i) {
+                final long deadline = device.deadlines.get(i);
+                final long called = device.calls.get(i);
+                //at the first instruction boundary at or after the deadline
+                assertTrue(jitEnabled + ": called at " + called + " for " + deadline, 
+                        called >= deadline && called < deadline + 3);
+            }
+        }
+    }
+
+    public void testCancelSchedule() {
+        final DCPU dcpu = load(
+            0x8640,     //HWI 0
+            0x8b83      //SUB PC, 1
+        );
+        final StubDevice device = new StubDevice(1, 1, 1) {
+
+            @Override
+            public int onInterrupt(DCPU dcpu) {
+                super.onInterrupt(dcpu);
+                dcpu.cancelSchedule(this);
+                return 0;
+            }
+
+        };
+        device.reschedule = 1;
+        dcpu.attachDevice(device);
+
+        dcpu.run(10 * INTERVAL);
+        assertEquals(1, device.interrupts.size());
+        assertEquals(0, device.calls.size());
+    }
+
+    private static DCPU load(int... words) {
+        final char[] program = new char[words.length];
+        for (int i = 0; i < words.length; ++i) {
+            program[i] = (char) words[i];
+        }
+        final DCPU dcpu = new DCPU();
+        dcpu.loadProgram(new ProgramImage(program));
+        return dcpu;
+    }
+
+    /**
+     * records its interrupts and scheduled calls. If reschedule is set it
+     * schedules itself every {@link #INTERVAL} cycles on HWI that often.
+     */
+    private static class StubDevice implements Device {
+
+        private final int hardwareId;
+        private final int version;
+        private final int manufacturer;
+        private int additionalCycles = 0;
+        private int reschedule = 0;
+
+        private final List<Integer> interrupts = new ArrayList<>();
+        private final List<Long> deadlines = new ArrayList<>();
+        private final List<Long> calls = new ArrayList<>();
+
+        StubDevice(int hardwareId, int version, int manufacturer) {
+            this.hardwareId = hardwareId;
+            this.version = version;
+            this.manufacturer = manufacturer;
+        }
+
+        @Override
+        public int getHardwareId() {
+            return hardwareId;
+        }
+
+        @Override
+        public int getVersion() {
+            return version;
+        }
+
+        @Override
+        public int getManufacturer() {
+            return manufacturer;
+        }
+
+        @Override
+        public void onAttach(DCPU dcpu) {
+        }
+
+        @Override
+        public int onInterrupt(DCPU dcpu) {
+            interrupts.add(dcpu.getRegisterValue(Register.A));
+            if (reschedule > 0) {
+                schedule(dcpu);
+            }
+            return additionalCycles;
+        }
+
+        @Override
+        public void onScheduledCycle(DCPU dcpu, long cycles) {
+            calls.add(cycles);
+            if (calls.size() < reschedule) {
+                schedule(dcpu);
+            }
+        }
+
+        private void schedule(DCPU dcpu) {
+            deadlines.add(dcpu.getCycles() + INTERVAL);
+            dcpu.schedule(this, INTERVAL);
+        }
+
+        @Override
+        public void onReset(DCPU dcpu) {
+        }
+
+        @Override
+        public Object saveState() {
+            return null;
+        }
+
+        @Override
+        public void restoreState(DCPU dcpu, Object state) {
+        }
+
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link DCPU#fork()} and the copy on write pages beneath it.
+ *
+ * @author Florian Frankenberger
+ */
+public class ForkTest extends TestCase {
+
+    /**
+     * counts in A and writes A to [A + 0x2000]
+     */
+    private static final ProgramImage COUNTER = new ProgramImage(new char[] {
+        0x8802,         //ADD A, 1
+        0x0201, 0x2000, //SET [A + 0x2000], A
+        0x7f81, 0x0000  //SET PC, 0
+    });
+
+    public void testForkContinuesFromState() {
+        final DCPU dcpu = new DCPU();
+        dcpu.loadProgram(COUNTER);
+        dcpu.run(10_000);
+
+        final DCPU fork = dcpu.fork();
+        assertEquals(dcpu.getCycles(), fork.getCycles());
+        assertSame(dcpu.getProgram(), fork.getProgram());
+        assertSameState(dcpu, fork);
+
+        dcpu.run(10_000);
+        fork.run(10_000);
+        assertSameState(dcpu, fork);
+    }
+
+    public void testWritesAreIsolated() {
+        final DCPU dcpu = new DCPU();
+        dcpu.loadProgram(COUNTER);
+        dcpu.run(10_000);
+        final int a = dcpu.getRegisterValue(Register.A);
+
+        final DCPU fork = dcpu.fork();
+        fork.setRamValue(0x2000 + a, 0xBEEF);
+        fork.setRamValue(0x9000, 0xBEEF);
+        fork.setRegisterValue(Register.B, 0xBEEF);
+        assertEquals(a, dcpu.getRamValue(0x2000 + a));
+        assertEquals(0, dcpu.getRamValue(0x9000));
+        assertEquals(0, dcpu.getRegisterValue(Register.B));
+
+        dcpu.setRamValue(0x2001, 0xCAFE);
+        dcpu.setRamValue(0xA000, 0xCAFE);
+        assertEquals(1, fork.getRamValue(0x2001));
+        assertEquals(0, fork.getRamValue(0xA000));
+        assertEquals(0xBEEF, fork.getRamValue(0x9000));
+    }
+
+    public void testForksRunIndependently() {
+        final DCPU dcpu = new DCPU();
+        dcpu.loadProgram(COUNTER);
+        dcpu.run(1_000);
+
+        final DCPU first = dcpu.fork();
+        final DCPU second = dcpu.fork();
+        second.setRegisterValue(Register.A, 0x1000);
+        first.run(10_000);
+        second.run(10_000);
+
+        //the last completed iteration wrote A - 1
+        final int firstA = first.getRegisterValue(Register.A) - 1;
+        final int secondA = second.getRegisterValue(Register.A) - 1;
+        assertEquals(firstA, first.getRamValue(0x2000 + firstA));
+        assertEquals(secondA, second.getRamValue(0x2000 + secondA));
+        //each fork only sees its own writes
+        assertEquals(0, first.getRamValue(0x2000 + secondA));
+        assertEquals(0, second.getRamValue(0x2000 + firstA));
+        assertEquals(0, dcpu.getRamValue(0x2000 + firstA));
+        assertEquals(0, dcpu.getRamValue(0x2000 + secondA));
+    }
+
+    public void testForkOfFork() {
+        final DCPU dcpu = new DCPU();
+        dcpu.loadProgram(COUNTER);
+        dcpu.run(1_000);
+
+        final DCPU fork = dcpu.fork();
+        fork.run(1_000);
+        final DCPU forkOfFork = fork.fork();
+        forkOfFork.run(1_000);
+        fork.run(1_000);
+        assertSameState(fork, forkOfFork);
+
+        //the parent is behind and did not see the writes of its forks
+        dcpu.run(1_000);
+        final int forkA = fork.getRegisterValue(Register.A) - 1;
+        assertTrue(dcpu.getRegisterValue(Register.A) < forkA);
+        assertEquals(0, dcpu.getRamValue(0x2000 + forkA));
+    }
+
+    private static void assertSameState(DCPU expected, DCPU actual) {
+        for (Register register : Register.values()) {
+            assertEquals(register.name(), expected.getRegisterValue(register), actual.getRegisterValue(register));
+        }
+        for (int address = 0; address < expected.getRamSize(); ++address) {
+            assertEquals("ram at " + address, expected.getRamValue(address), actual.getRamValue(address));
+        }
+        assertEquals(expected.getCycles(), actual.getCycles());
+    }
+
+}
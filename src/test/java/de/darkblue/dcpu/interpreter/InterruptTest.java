@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.darkblue.dcpu.interpreter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * Tests INT, IAS, RFI and IAQ and the interrupt queue beneath them.
+ *
+ * @author Florian Frankenberger
+ */
+public class InterruptTest extends TestCase {
+
+    private static final int HANDLER = 0x100;
+
+    /**
+     * counts the interrupts in C, sums their messages in X and
+     * shifts them into Z
+     */
+    private static final char[] COUNTING_HANDLER = {
+        0x8842,         //ADD C, 1
+        0x0062,         //ADD X, A
+        0x94af,         //SHL Z, 4
+        0x00ab,         //BOR Z, A
+        0x8560          //RFI 0
+    };
+
+    public void testRfiRestoresAAndPc() {
+        final DCPU dcpu = load(
+            0x7d40, HANDLER,    //IAS HANDLER
+            0x7c01, 0x1234,     //SET A, 0x1234
+            0x9900,             //INT 5
+            0x0081,             //SET Y, A
+            0x0000              //DAT 0
+        );
+        assertEquals(ExitReason.HALTED, dcpu.run(1_000));
+        assertEquals(1, dcpu.getRegisterValue(Register.C));
+        assertEquals(5, dcpu.getRegisterValue(Register.X));
+        assertEquals(0x1234, dcpu.getRegisterValue(Register.Y));
+        assertEquals(0x1234, dcpu.getRegisterValue(Register.A));
+        assertEquals(0, dcpu.getRegisterValue(Register.SP));
+        assertFalse(dcpu.isInterruptQueueing());
+    }
+
+    public void testInterruptsAreDroppedIfIaIsZero() {
+        final DCPU dcpu = load(
+            0x9900,             //INT 5
+            0x7d40, HANDLER,    //IAS HANDLER
+            0x8881,             //SET Y, 1
+            0x0000              //DAT 0
+        );
+        assertEquals(ExitReason.HALTED, dcpu.run(1_000));
+        assertEquals(0, dcpu.getRegisterValue(Register.C));
+        assertEquals(1, dcpu.getRegisterValue(Register.Y));
+
+        //from outside as well
+        dcpu.setRegisterValue(Register.IA, 0);
+        dcpu.setRegisterValue(Register.PC, 3);
+        dcpu.interrupt(7);
+        assertEquals(ExitReason.HALTED, dcpu.run(1_000));
+        assertEquals(0, dcpu.getRegisterValue(Register.C));
+    }
+
+    public void testIaqQueuesInterrupts() {
+        final DCPU dcpu = load(
+            0x7d40, HANDLER,    //IAS HANDLER
+            0x8980,             //IAQ 1
+            0x8900,             //INT 1
+            0x8d00,             //INT 2
+            0x0881,             //SET Y, C
+            0x8580,             //IAQ 0
+            0x08c1,             //SET I, C
+            0x0000              //DAT 0
+        );
+        assertEquals(ExitReason.HALTED, dcpu.run(1_000));
+        //nothing was triggered while queueing
+        assertEquals(0, dcpu.getRegisterValue(Register.Y));
+        //both were triggered in order afterwards
+        assertEquals(2, dcpu.getRegisterValue(Register.I));
+        assertEquals(0x12, dcpu.getRegisterValue(Register.Z));
+    }
+
+    public void testQueueOverflowCatchesFire() {
+        final DCPU dcpu = load(
+            0x7d40, HANDLER,    //IAS HANDLER
+            0x8980,             //IAQ 1
+            0x8900,             //INT 1
+            0x9381              //SET PC, 3
+        );
+        assertEquals(ExitReason.ERROR, dcpu.run(1_000_000));
+        assertTrue(dcpu.getLastError() instanceof IllegalStateException);
+        assertEquals(0, dcpu.getRegisterValue(Register.C));
+
+        final DCPU other = load(0x8b83); //SUB PC, 1
+        for (int i = 0; i < InterruptQueue.CAPACITY; ++i) {
+            assertTrue(other.interrupt(i));
+        }
+        assertFalse(other.interrupt(InterruptQueue.CAPACITY));
+        assertEquals(ExitReason.ERROR, other.run(1_000));
+    }
+
+    /**
+     * two threads raise interrupts while the dcpu is running. The senders
+     * keep less than 256 interrupts in flight, so none may be lost.
+     */
+    public void testInterruptsFromOtherThreads() throws Exception {
+        final int interruptsPerSender = 5_000;
+        final DCPU dcpu = load(
+            0x7d40, HANDLER,    //IAS HANDLER
+            0x8b83              //SUB PC, 1
+        );
+        //IA has to be set before the first interrupt arrives
+        assertEquals(ExitReason.BUDGET_EXHAUSTED, dcpu.run(100));
+        final AtomicInteger sent = new AtomicInteger();
+        final AtomicInteger handled = new AtomicInteger();
+        final Thread[] senders = new Thread[2];
+        for (int i = 0; i < senders.length; ++i) {
+            senders[i] = new Thread("interrupt sender") {
+
+                @Override
+                public void run() {
+                    for (int message = 1; message <= interruptsPerSender; ++message) {
+                        while (sent.get() - handled.get() >= 200) {
+                            Thread.yield();
+                        }
+                        sent.incrementAndGet();
+                        dcpu.interrupt(message);
+                    }
+                }
+
+            };
+            senders[i].setDaemon(true);
+            senders[i].start();
+        }
+
+        final int expected = senders.length * interruptsPerSender;
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (handled.get() < expected && System.currentTimeMillis() < deadline) {
+            assertEquals(ExitReason.BUDGET_EXHAUSTED, dcpu.run(1_000));
+            handled.set(dcpu.getRegisterValue(Register.C));
+        }
+        for (Thread sender : senders) {
+            sender.join(1_000);
+        }
+        assertEquals(ExitReason.BUDGET_EXHAUSTED, dcpu.run(1_000));
+
+        assertEquals(expected & 0xFFFF, dcpu.getRegisterValue(Register.C));
+        final long sum = (long) senders.length * interruptsPerSender * (interruptsPerSender + 1) / 2;
+        assertEquals(sum & 0xFFFF, dcpu.getRegisterValue(Register.X));
+    }
+
+    private static DCPU load(int... words) {
+        final char[] ram = new char[HANDLER + COUNTING_HANDLER.length];
+        for (int i = 0; i < words.length; ++i) {
+            ram[i] = (char) words[i];
+        }
+        System.arraycopy(COUNTING_HANDLER, 0, ram, HANDLER, COUNTING_HANDLER.length);
+        final DCPU dcpu = new DCPU();
+        dcpu.loadProgram(new ProgramImage(ram));
+        return dcpu;
+    }
+
+}
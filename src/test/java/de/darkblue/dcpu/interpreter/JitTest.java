@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Runs the same programs once interpreted and once with the block compiler
+ * and compares the registers, the ram and the cycles afterwards. The loops
+ * run long enough for their blocks to get compiled.
+ *
+ * @author Florian Frankenberger
+ */
+public class JitTest extends TestCase {
+
+    private static final int SET = 0x01, ADD = 0x02, SUB = 0x03, MUL = 0x04, MLI = 0x05,
+            DIV = 0x06, DVI = 0x07, MOD = 0x08, MDI = 0x09, AND = 0x0a, BOR = 0x0b, XOR = 0x0c,
+            SHR = 0x0d, ASR = 0x0e, SHL = 0x0f, IFN = 0x13, IFG = 0x14, ADX = 0x1a, SBX = 0x1b;
+
+    private static final int A = 0x00, B = 0x01, C = 0x02, X = 0x03, Y = 0x04, Z = 0x05,
+            I = 0x06, J = 0x07, MEM_A = 0x08, MEM_I = 0x0e, MEM_A_NEXT = 0x10, PUSH_POP = 0x18,
+            PEEK = 0x19, PICK = 0x1a, SP = 0x1b, PC = 0x1c, EX = 0x1d, MEM_NEXT = 0x1e,
+            NEXT = 0x1f;
+
+    /**
+     * a short literal (-1 ... 30)
+     */
+    private static int literal(int value) {
+        return 0x21 + value;
+    }
+
+    public void testArithmeticLoop() {
+        final Program program = new Program();
+        program.op(SET, B, NEXT, 0x1234);
+        program.op(SET, SP, NEXT, 0x8000);
+        final int loop = program.position();
+        program.op(ADD, A, literal(1));
+        program.op(MUL, B, literal(3));
+        program.op(ADD, B, EX);
+        program.op(XOR, C, A);
+        program.op(SUB, X, literal(7));
+        program.op(MLI, Y, literal(-1));
+        program.op(ADD, Y, B);
+        program.op(MOD, Z, A);
+        program.op(ADD, Z, B);
+        program.op(SET, PUSH_POP, A);
+        program.op(SET, PUSH_POP, B);
+        program.op(ADD, PEEK, C);
+        program.op(ADD, PICK, literal(0), 1);
+        program.op(SET, I, PUSH_POP);
+        program.op(SET, J, PUSH_POP);
+        program.op(BOR, MEM_NEXT, I, 0x3000);
+        program.op(SET, MEM_A_NEXT, MEM_NEXT, 0x3000, 0x2000);
+        program.op(ADD, MEM_I, MEM_A);
+        program.op(AND, J, NEXT, 0xff0f);
+        program.op(SUB, X, MEM_A_NEXT, 0x2000);
+        program.op(ADD, C, EX);
+        program.op(DIV, C, literal(7));
+        program.op(DVI, Y, A);
+        program.op(MDI, Z, NEXT, 0xfff3);
+        program.op(SHR, J, literal(3));
+        program.op(ASR, Y, literal(1));
+        program.op(SHL, B, literal(4));
+        program.op(ADX, I, B);
+        program.op(SBX, X, C);
+        program.op(SHL, MEM_I, literal(2));
+        program.op(IFN, A, NEXT, 3000);
+        program.op(SET, PC, NEXT, loop);
+        program.halt();
+
+        compare(program);
+    }
+
+    public void testSelfModifyingCode() {
+        final Program program = new Program();
+        final int loop = program.position();
+        program.op(ADD, A, literal(1));
+        final int patchedLiteral = program.position();
+        program.op(ADD, B, NEXT, 0x0000);
+        final int patchedOpcode = program.position();
+        program.op(ADD, C, A);
+        //once the block got compiled the literal and the opcode (ADD / SUB)
+        //of the instructions above are changed in every iteration
+        program.op(IFG, A, NEXT, BasicBlock.COMPILE_THRESHOLD + 500);
+        program.op(ADD, MEM_NEXT, literal(3), patchedLiteral + 1);
+        program.op(IFG, A, NEXT, BasicBlock.COMPILE_THRESHOLD + 500);
+        program.op(XOR, MEM_NEXT, literal(ADD ^ SUB), patchedOpcode);
+        program.op(IFN, A, NEXT, 3000);
+        program.op(SET, PC, NEXT, loop);
+        program.halt();
+
+        compare(program);
+    }
+
+    public void testDataOnCodePage() {
+        final Program program = new Program();
+        final int loop = program.position();
+        program.op(ADD, A, literal(1));
+        program.op(SET, MEM_A_NEXT, A, 0x0080);
+        program.op(ADD, MEM_NEXT, A, 0x00F0);
+        program.op(IFG, NEXT, A, 3000);
+        program.op(SET, PC, NEXT, loop);
+        program.halt();
+
+        compare(program);
+    }
+
+    /**
+     * runs the program in small slices, so the cycle budget ends in
+     * the middle of the blocks as well
+     */
+    public void testCycleBudget() {
+        final Program program = new Program();
+        final int loop = program.position();
+        program.op(ADD, A, literal(1));
+        program.op(MUL, B, NEXT, 0x0101);
+        program.op(ADD, B, A);
+        program.op(DIV, X, literal(3));
+        program.op(ADD, X, B);
+        program.op(SET, PC, NEXT, loop);
+
+        final DCPU interpreted = load(program, false);
+        final DCPU compiled = load(program, true);
+        for (int slice = 0; slice < 2000; ++slice) {
+            assertEquals(interpreted.run(37), compiled.run(37));
+            assertSameState("slice " + slice, interpreted, compiled);
+        }
+    }
+
+    private void compare(Program program) {
+        final DCPU interpreted = load(program, false);
+        final DCPU compiled = load(program, true);
+        assertEquals(ExitReason.HALTED, interpreted.run(10_000_000L));
+        assertEquals(ExitReason.HALTED, compiled.run(10_000_000L));
+        assertSameState("after halting", interpreted, compiled);
+    }
+
+    private static DCPU load(Program program, boolean jitEnabled) {
+        final DCPU dcpu = new DCPU();
+        dcpu.setJitEnabled(jitEnabled);
+        dcpu.loadProgram(new ProgramImage(program.toWords()));
+        return dcpu;
+    }
+
+    private static void assertSameState(String message, DCPU expected, DCPU actual) {
+        for (Register register : Register.values()) {
+            assertEquals(message + ": " + register,
+                    expected.getRegisterValue(register), actual.getRegisterValue(register));
+        }
+        for (int address = 0; address < PagedRam.SIZE; ++address) {
+            if (expected.getRamValue(address) != actual.getRamValue(address)) {
+                fail(String.format("%s: ram at 0x%04x differs: 0x%04x != 0x%04x", message, address,
+                        expected.getRamValue(address), actual.getRamValue(address)));
+            }
+        }
+        assertEquals(message + ": cycles", expected.getCycles(), actual.getCycles());
+    }
+
+    /**
+     * a program assembled from opcodes and operand codes
+     */
+    private static final class Program {
+
+        private final List<Integer> words = new ArrayList<>();
+
+        int position() {
+            return words.size();
+        }
+
+        void op(int opcode, int b, int a, int... nextWords) {
+            words.add(opcode | (b << 5) | (a << 10));
+            for (int word : nextWords) {
+                words.add(word);
+            }
+        }
+
+        void halt() {
+            words.add(0x0000);
+        }
+
+        char[] toWords() {
+            final char[] result = new char[words.size()];
+            for (int i = 0; i < result.length; ++i) {
+                result[i] = (char) words.get(i).intValue();
+            }
+            return result;
+        }
+
+    }
+
+}
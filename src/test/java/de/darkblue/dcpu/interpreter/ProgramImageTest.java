@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import junit.framework.TestCase;
+
+/**
+ * Tests loading a shared {@link ProgramImage} into DCPUs.
+ *
+ * @author Florian Frankenberger
+ */
+public class ProgramImageTest extends TestCase {
+
+    /**
+     * counts in A and writes A to [A + 0x2000]
+     */
+    private static final char[] COUNTER = {
+        0x8802,         //ADD A, 1
+        0x0201, 0x2000, //SET [A + 0x2000], A
+        0x7f81, 0x0000  //SET PC, 0
+    };
+
+    public void testImageIsNotChanged() {
+        final ProgramImage image = new ProgramImage(COUNTER);
+        final DCPU first = new DCPU();
+        final DCPU second = new DCPU();
+        first.loadProgram(image);
+        second.loadProgram(image);
+
+        first.run(10_000);
+        first.setRamValue(1, 0xBEEF);
+        assertEquals(0x0201, image.getValue(1));
+        assertEquals(0, image.getValue(0x2001));
+        assertEquals(0x0201, second.getRamValue(1));
+        assertEquals(0, second.getRamValue(0x2001));
+        assertEquals(1, first.getRamValue(0x2001));
+    }
+
+    public void testWordsAreCopied() {
+        final char[] words = COUNTER.clone();
+        final ProgramImage image = new ProgramImage(words);
+        words[0] = 0xBEEF;
+        assertEquals(COUNTER.length, image.getLength());
+        assertEquals(COUNTER[0], image.getValue(0));
+    }
+
+    public void testResetDropsWrittenPages() {
+        final ProgramImage image = new ProgramImage(COUNTER);
+        final DCPU dcpu = new DCPU();
+        dcpu.loadProgram(image);
+        dcpu.run(10_000);
+        dcpu.setRamValue(3, 0xBEEF);
+
+        dcpu.reset();
+        assertSame(image, dcpu.getProgram());
+        for (int address = 0; address < dcpu.getRamSize(); ++address) {
+            assertEquals("ram at " + address, image.getValue(address), dcpu.getRamValue(address));
+        }
+        assertEquals(0, dcpu.getRegisterValue(Register.A));
+        assertEquals(0, dcpu.getCycles());
+    }
+
+    public void testClearRam() {
+        final ProgramImage image = new ProgramImage(COUNTER);
+        final DCPU dcpu = new DCPU();
+        dcpu.loadProgram(image);
+        dcpu.clearRam();
+        assertEquals(0, dcpu.getRamValue(0));
+        assertEquals(COUNTER[0], image.getValue(0));
+    }
+
+    public void testRead() throws IOException {
+        final byte[] bytes = new byte[COUNTER.length * 2 + 1];
+        for (int i = 0; i < COUNTER.length; ++i) {
+            bytes[i * 2] = (byte) (COUNTER[i] >> 8);
+            bytes[i * 2 + 1] = (byte) COUNTER[i];
+        }
+
+        //the incomplete last word is ignored
+        final ProgramImage image = ProgramImage.read(new ByteArrayInputStream(bytes));
+        assertEquals(COUNTER.length, image.getLength());
+        for (int i = 0; i < COUNTER.length; ++i) {
+            assertEquals(COUNTER[i], image.getValue(i));
+        }
+    }
+
+    public void testTooLong() {
+        try {
+            new ProgramImage(new char[PagedRam.SIZE + 1]);
+            fail("created a program longer than the ram");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.darkblue.dcpu.interpreter;
+
+import de.darkblue.dcpu.interpreter.devices.GenericClock;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link DCPU#snapshot()} and {@link DCPU#restore(Snapshot)}.
+ *
+ * @author Florian Frankenberger
+ */
+public class SnapshotTest extends TestCase {
+
+    /**
+     * counts in A and writes A to [A + 0x2000]
+     */
+    private static final ProgramImage COUNTER = new ProgramImage(new char[] {
+        0x8802,         //ADD A, 1
+        0x0201, 0x2000, //SET [A + 0x2000], A
+        0x7f81, 0x0000  //SET PC, 0
+    });
+
+    /**
+     * starts a clock with 60 ticks per second and reads the ticks into C
+     */
+    private static final ProgramImage CLOCK = new ProgramImage(new char[] {
+        0x8401,         //SET A, 0
+        0x8821,         //SET B, 1
+        0x8640,         //HWI 0
+        0x8801,         //SET A, 1
+        0x8640,         //HWI 0
+        0x7f81, 0x0004  //SET PC, 4
+    });
+
+    public void testRestoreAfterWrites() {
+        final DCPU dcpu = new DCPU();
+        dcpu.loadProgram(COUNTER);
+        dcpu.run(10_000);
+
+        final Snapshot snapshot = dcpu.snapshot();
+        final String snapshotState = state(dcpu);
+        dcpu.run(10_000);
+        final String continuedState = state(dcpu);
+        assertFalse(snapshotState.equals(continuedState));
+
+        dcpu.restore(snapshot);
+        assertEquals(snapshotState, state(dcpu));
+        assertEquals(snapshot.getCycles(), dcpu.getCycles());
+        assertEquals(snapshot.getRegisterValue(Register.A), dcpu.getRegisterValue(Register.A));
+
+        //the snapshot is not changed by the writes after restoring
+        dcpu.run(10_000);
+        assertEquals(continuedState, state(dcpu));
+        dcpu.restore(snapshot);
+        assertEquals(snapshotState, state(dcpu));
+    }
+
+    public void testSnapshotIsNotChangedByWrites() {
+        final DCPU dcpu = new DCPU();
+        dcpu.loadProgram(COUNTER);
+        dcpu.run(1_000);
+
+        final Snapshot snapshot = dcpu.snapshot();
+        final int a = snapshot.getRegisterValue(Register.A);
+        dcpu.setRamValue(0x2000 + a, 0xBEEF);
+        dcpu.setRamValue(0x2000 + a + 1, 0xBEEF);
+        dcpu.setRegisterValue(Register.A, 0);
+
+        assertEquals(a, snapshot.getRamValue(0x2000 + a));
+        assertEquals(0, snapshot.getRamValue(0x2000 + a + 1));
+        assertEquals(a, snapshot.getRegisterValue(Register.A));
+    }
+
+    public void testRestoreDeviceState() {
+        final DCPU dcpu = new DCPU();
+        dcpu.attachDevice(new GenericClock());
+        dcpu.loadProgram(CLOCK);
+        dcpu.run(50_000);
+        final int ticksAtSnapshot = dcpu.getRegisterValue(Register.C);
+        assertTrue(ticksAtSnapshot > 0);
+
+        final Snapshot snapshot = dcpu.snapshot();
+        dcpu.run(50_000);
+        final String continuedState = state(dcpu);
+        assertTrue(dcpu.getRegisterValue(Register.C) > ticksAtSnapshot);
+
+        //the clock continues from the ticks and the deadline of the snapshot
+        dcpu.restore(snapshot);
+        dcpu.run(50_000);
+        assertEquals(continuedState, state(dcpu));
+
+        //a reset of the clock after the snapshot is undone as well
+        dcpu.reset();
+        dcpu.restore(snapshot);
+        dcpu.run(50_000);
+        assertEquals(continuedState, state(dcpu));
+    }
+
+    public void testRestoreInOtherDcpu() {
+        final DCPU dcpu = new DCPU();
+        dcpu.attachDevice(new GenericClock());
+        dcpu.loadProgram(CLOCK);
+        dcpu.run(50_000);
+
+        final Snapshot snapshot = dcpu.snapshot();
+        dcpu.run(50_000);
+
+        final DCPU other = new DCPU();
+        other.attachDevice(new GenericClock());
+        other.restore(snapshot);
+        other.run(50_000);
+        assertEquals(state(dcpu), state(other));
+    }
+
+    public void testRestoreWithOtherDevices() {
+        final DCPU dcpu = new DCPU();
+        dcpu.loadProgram(COUNTER);
+        final Snapshot snapshot = dcpu.snapshot();
+
+        final DCPU other = new DCPU();
+        other.attachDevice(new GenericClock());
+        try {
+            other.restore(snapshot);
+            fail("restored a snapshot taken without devices");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    private static String state(DCPU dcpu) {
+        final StringBuilder state = new StringBuilder();
+        state.append("cycles=").append(dcpu.getCycles());
+        for (Register register : Register.values()) {
+            state.append(' ').append(register).append('=').append(dcpu.getRegisterValue(register));
+        }
+        int hash = 0;
+        for (int address = 0; address < dcpu.getRamSize(); ++address) {
+            hash = hash * 31 + dcpu.getRamValue(address);
+        }
+        return state.append(" ram=").append(hash).toString();
+    }
+
+}
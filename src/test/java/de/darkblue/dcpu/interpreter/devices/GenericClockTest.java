@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.darkblue.dcpu.interpreter.devices;
+
+import de.darkblue.dcpu.interpreter.DCPU;
+import de.darkblue.dcpu.interpreter.ExitReason;
+import de.darkblue.dcpu.interpreter.ProgramImage;
+import de.darkblue.dcpu.interpreter.Register;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the ticks of the {@link GenericClock} only depend on the
+ * executed cycles and not on the time the execution took.
+ *
+ * @author Florian Frankenberger
+ */
+public class GenericClockTest extends TestCase {
+
+    /**
+     * starts the clock with 60 ticks per second, counts its interrupts
+     * in I and reads the ticks into C
+     */
+    private static final ProgramImage TICK_COUNTER = new ProgramImage(new char[] {
+        0x8c01,         //SET A, 2
+        0x7c21, 0x0042, //SET B, 0x42
+        0x8640,         //HWI 0
+        0x7d40, 0x0014, //IAS 0x14
+        0x8401,         //SET A, 0
+        0x8821,         //SET B, 1
+        0x8640,         //HWI 0
+        0x8801,         //SET A, 1
+        0x8640,         //HWI 0
+        0x7f81, 0x000a, //SET PC, 10
+        0, 0, 0, 0, 0, 0, 0,
+        0x88c2,         //ADD I, 1
+        0x8560          //RFI 0
+    });
+
+    private static final long SECOND = 100_000; //the default speed
+
+    public void testTicksPerCycles() {
+        final DCPU dcpu = load();
+        //the 600th tick is due a few cycles after 10 seconds
+        assertEquals(ExitReason.BUDGET_EXHAUSTED, dcpu.run(10 * SECOND));
+        assertEquals(599, dcpu.getRegisterValue(Register.C));
+        assertEquals(599, dcpu.getRegisterValue(Register.I));
+
+        assertEquals(ExitReason.BUDGET_EXHAUSTED, dcpu.run(10 * SECOND));
+        assertEquals(1199, dcpu.getRegisterValue(Register.C));
+        assertEquals(1199, dcpu.getRegisterValue(Register.I));
+    }
+
+    public void testTicksFollowSimulationSpeed() {
+        final DCPU dcpu = load();
+        dcpu.setSimulationSpeed(2 * SECOND);
+        assertEquals(ExitReason.BUDGET_EXHAUSTED, dcpu.run(10 * SECOND));
+        assertEquals(299, dcpu.getRegisterValue(Register.C));
+    }
+
+    /**
+     * runs the same budget at once and in slices with pauses in between,
+     * which must not make any difference
+     */
+    public void testIndependentOfTime() throws InterruptedException {
+        final DCPU atOnce = load();
+        atOnce.run(SECOND);
+
+        final DCPU sliced = load();
+        while (sliced.getCycles() < SECOND) {
+            sliced.run(Math.min(SECOND / 10, SECOND - sliced.getCycles()));
+            Thread.sleep(20);
+        }
+
+        assertEquals(59, atOnce.getRegisterValue(Register.I));
+        assertEquals(atOnce.getCycles(), sliced.getCycles());
+        for (Register register : Register.values()) {
+            assertEquals(register.name(), atOnce.getRegisterValue(register), sliced.getRegisterValue(register));
+        }
+    }
+
+    private static DCPU load() {
+        final DCPU dcpu = new DCPU();
+        dcpu.attachDevice(new GenericClock());
+        dcpu.loadProgram(TICK_COUNTER);
+        return dcpu;
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.darkblue.dcpu.interpreter.devices;
+
+import de.darkblue.dcpu.interpreter.DCPU;
+import de.darkblue.dcpu.interpreter.ProgramImage;
+import de.darkblue.dcpu.interpreter.Register;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import junit.framework.TestCase;
+
+/**
+ * Tests reading and writing sectors of temporary disk images with
+ * the {@link M35FD}.
+ *
+ * @author Florian Frankenberger
+ */
+public class M35FDTest extends TestCase {
+
+    private static final int POLL = 0;
+    private static final int READ_SECTOR = 2;
+    private static final int WRITE_SECTOR = 3;
+
+    /**
+     * more than the seek and transfer of a sector take
+     */
+    private static final long OPERATION_CYCLES = 100_000;
+
+    private final DCPU dcpu = new DCPU();
+    private final M35FD drive = new M35FD();
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        dcpu.loadProgram(new ProgramImage(new char[] {
+            0x8b83  //SUB PC, 1
+        }));
+        dcpu.attachDevice(drive);
+        file = File.createTempFile("m35fd", ".img");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        drive.eject();
+        file.delete();
+    }
+
+    public void testWriteAndRead() throws IOException {
+        drive.insert(file, false);
+        assertEquals(M35FD.STATE_READY, drive.getState());
+        for (int i = 0; i < M35FD.SECTOR_SIZE; ++i) {
+            dcpu.setRamValue(0x1000 + i, word(i));
+        }
+
+        assertEquals(1, interrupt(WRITE_SECTOR, 5, 0x1000));
+        assertEquals(M35FD.STATE_BUSY, drive.getState());
+        //only one operation at a time
+        assertEquals(0, interrupt(READ_SECTOR, 5, 0x3000));
+        interrupt(POLL, 0, 0);
+        assertEquals(M35FD.STATE_BUSY, dcpu.getRegisterValue(Register.B));
+        assertEquals(M35FD.ERROR_BUSY, dcpu.getRegisterValue(Register.C));
+
+        dcpu.run(OPERATION_CYCLES);
+        assertEquals(M35FD.STATE_READY, drive.getState());
+
+        assertEquals(1, interrupt(READ_SECTOR, 5, 0x3000));
+        //the data is copied when the operation completes
+        dcpu.run(100);
+        assertEquals(0, dcpu.getRamValue(0x3001));
+        dcpu.run(OPERATION_CYCLES);
+        for (int i = 0; i < M35FD.SECTOR_SIZE; ++i) {
+            assertEquals(word(i), dcpu.getRamValue(0x3000 + i));
+        }
+
+        //the image holds the words big endian at the sector's offset
+        drive.eject();
+        assertEquals(M35FD.STATE_NO_MEDIA, drive.getState());
+        assertEquals(M35FD.SECTORS * M35FD.SECTOR_SIZE * 2, file.length());
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.skipBytes(5 * M35FD.SECTOR_SIZE * 2);
+            for (int i = 0; i < M35FD.SECTOR_SIZE; ++i) {
+                assertEquals(word(i), in.readChar());
+            }
+        }
+    }
+
+    public void testShortWriteProtectedImage() throws IOException {
+        //one and a half sectors
+        final int words = M35FD.SECTOR_SIZE * 3 / 2;
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < words; ++i) {
+                out.writeChar(word(i));
+            }
+        }
+        drive.insert(file, true);
+        assertEquals(M35FD.STATE_READY_WP, drive.getState());
+
+        fillRam(0x2000, 2 * M35FD.SECTOR_SIZE);
+        assertEquals(1, interrupt(READ_SECTOR, 1, 0x2000));
+        dcpu.run(OPERATION_CYCLES);
+        assertEquals(1, interrupt(READ_SECTOR, 100, 0x2000 + M35FD.SECTOR_SIZE));
+        dcpu.run(OPERATION_CYCLES);
+
+        //the missing words read as zeros
+        for (int i = 0; i < M35FD.SECTOR_SIZE; ++i) {
+            final int expected = M35FD.SECTOR_SIZE + i < words ? word(M35FD.SECTOR_SIZE + i) : 0;
+            assertEquals("word " + i, expected, dcpu.getRamValue(0x2000 + i));
+            assertEquals("word " + i, 0, dcpu.getRamValue(0x2000 + M35FD.SECTOR_SIZE + i));
+        }
+
+        assertEquals(0, interrupt(WRITE_SECTOR, 0, 0x2000));
+        interrupt(POLL, 0, 0);
+        assertEquals(M35FD.STATE_READY_WP, dcpu.getRegisterValue(Register.B));
+        assertEquals(M35FD.ERROR_PROTECTED, dcpu.getRegisterValue(Register.C));
+        assertEquals(words * 2, file.length());
+    }
+
+    public void testBadSector() throws IOException {
+        drive.insert(file, false);
+        assertEquals(0, interrupt(READ_SECTOR, M35FD.SECTORS, 0x2000));
+        interrupt(POLL, 0, 0);
+        assertEquals(M35FD.STATE_READY, dcpu.getRegisterValue(Register.B));
+        assertEquals(M35FD.ERROR_BAD_SECTOR, dcpu.getRegisterValue(Register.C));
+
+        //polling clears the error
+        interrupt(POLL, 0, 0);
+        assertEquals(M35FD.ERROR_NONE, dcpu.getRegisterValue(Register.C));
+    }
+
+    public void testNoMedia() {
+        assertEquals(0, interrupt(READ_SECTOR, 0, 0x2000));
+        interrupt(POLL, 0, 0);
+        assertEquals(M35FD.STATE_NO_MEDIA, dcpu.getRegisterValue(Register.B));
+        assertEquals(M35FD.ERROR_NO_MEDIA, dcpu.getRegisterValue(Register.C));
+    }
+
+    /**
+     * sends a hardware interrupt to the drive like HWI does
+     *
+     * @return the value of B afterwards
+     */
+    private int interrupt(int a, int x, int y) {
+        dcpu.setRegisterValue(Register.A, a);
+        dcpu.setRegisterValue(Register.X, x);
+        dcpu.setRegisterValue(Register.Y, y);
+        drive.onInterrupt(dcpu);
+        return dcpu.getRegisterValue(Register.B);
+    }
+
+    private void fillRam(int address, int length) {
+        for (int i = 0; i < length; ++i) {
+            dcpu.setRamValue(address + i, 0xFFFF);
+        }
+    }
+
+    private static char word(int index) {
+        return (char) (index * 31 + 7);
+    }
+
+}
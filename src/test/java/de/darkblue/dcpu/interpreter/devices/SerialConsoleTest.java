@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2012 Florian Frankenberger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.darkblue.dcpu.interpreter.devices;
+
+import de.darkblue.dcpu.interpreter.DCPU;
+import de.darkblue.dcpu.interpreter.ExitReason;
+import de.darkblue.dcpu.interpreter.ProgramImage;
+import java.io.ByteArrayOutputStream;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the output of the {@link SerialConsole} is complete and in
+ * order, even if it needs more than all of its output buffers.
+ *
+ * @author Florian Frankenberger
+ */
+public class SerialConsoleTest extends TestCase {
+
+    private static final int TEXT = 0x1000;
+    private static final int TEXT_LENGTH = 0x1000;
+    private static final int WRITES = 400; //1.6 MB, more than all output buffers hold
+
+    /**
+     * increments the first character of the text at 0x1000 and writes
+     * the text 400 times
+     */
+    private static final ProgramImage WRITER = new ProgramImage(new char[] {
+        0x8801,         //SET A, 1
+        0x7c21, 0x1000, //SET B, 0x1000
+        0x7c41, 0x1000, //SET C, 0x1000
+        0x8bc2, 0x1000, //ADD [0x1000], 1
+        0x8640,         //HWI 0
+        0x88c2,         //ADD I, 1
+        0x7cd3, 0x0190, //IFN I, 400
+        0x9b81,         //SET PC, 5
+        0x0000          //DAT 0
+    });
+
+    public void testOutputIsCompleteAndInOrder() {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final SerialConsole console = new SerialConsole(output);
+        final DCPU dcpu = new DCPU();
+        dcpu.attachDevice(console);
+        dcpu.loadProgram(WRITER);
+        for (int i = 1; i < TEXT_LENGTH; ++i) {
+            dcpu.setRamValue(TEXT + i, text(i));
+        }
+
+        assertEquals(ExitReason.HALTED, dcpu.run(Long.MAX_VALUE));
+        console.flush();
+
+        final byte[] written = output.toByteArray();
+        assertEquals(WRITES * TEXT_LENGTH, written.length);
+        for (int write = 0; write < WRITES; ++write) {
+            //only the low 8 bits of each word are written
+            assertEquals("write " + write, (byte) (write + 1), written[write * TEXT_LENGTH]);
+            for (int i = 1; i < TEXT_LENGTH; ++i) {
+                if ((byte) text(i) != written[write * TEXT_LENGTH + i]) {
+                    fail("write " + write + " differs at " + i);
+                }
+            }
+        }
+    }
+
+    public void testFlushWritesPendingOutput() {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final SerialConsole console = new SerialConsole(output);
+        final DCPU dcpu = new DCPU();
+        dcpu.attachDevice(console);
+        dcpu.loadProgram(new ProgramImage(new char[] {
+            0x8401,         //SET A, 0
+            0x7c21, 0x0041, //SET B, 'A'
+            0x8640,         //HWI 0
+            0x0000          //DAT 0
+        }));
+
+        assertEquals(ExitReason.HALTED, dcpu.run(1_000));
+        assertEquals(0, output.size());
+        console.flush();
+        assertEquals("A", output.toString());
+    }
+
+    private static char text(int index) {
+        return (char) (0x4100 + 'a' + index % 26);
+    }
+
+}